@@ -0,0 +1,72 @@
+package org.nota.spell.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.spell.PlainTextDictionary;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.nota.spell.CandidateStrategy;
+import org.nota.spell.NotaNgramSpellChecker;
+import org.nota.spell.SpellSnapshot;
+
+/*
+ * Not a benchmark: a check that the candidate strategies cutting by gram overlap (gram_overlap and snapshots) find
+ * a word whose score is exactly the accuracy, like ngram_query does. Every case is a spell index of two words and
+ * the suggestions for the first one must contain the second. Fails with an IllegalStateException on the first
+ * case that doesn't hold, prints the cases otherwise. Takes no options.
+ * */
+public class AccuracyBoundaryCheck {
+
+	// word, candidate and the accuracy their score equals, 2/3 as the score computes it (1 - 1/3 in float)
+	private static final Object[][] CASES = { { "abcd", "abxcd", 0.8f }, { "abcde", "abxde", 0.8f },
+			{ "abcd", "abxd", 0.75f }, { "abc", "abxc", 0.75f }, { "abc", "abx", 1f - 1f / 3 },
+			{ "abcdef", "abcdxy", 1f - 1f / 3 }, { "abcdefghi", "abcdefxyz", 1f - 1f / 3 } };
+
+	public static void main(String[] args) throws IOException {
+		final Path snapshotFile = Files.createTempFile("spell", ".snapshot");
+		try {
+			for (Object[] c : CASES) {
+				check((String) c[0], (String) c[1], (Float) c[2], snapshotFile);
+			}
+		} finally {
+			Files.deleteIfExists(snapshotFile);
+		}
+		System.out.println("All " + CASES.length + " boundary cases passed");
+	}
+
+	private static void check(String word, String candidate, float accuracy, Path snapshotFile) throws IOException {
+		Directory spellDir = new RAMDirectory();
+		try (NotaNgramSpellChecker spellChecker = new NotaNgramSpellChecker(spellDir)) {
+			spellChecker.indexDictionary(new PlainTextDictionary(new StringReader(word + "\n" + candidate + "\n")),
+					new IndexWriterConfig(null), true);
+			for (CandidateStrategy strategy : Arrays.asList(CandidateStrategy.NGRAM_QUERY,
+					CandidateStrategy.GRAM_OVERLAP)) {
+				spellChecker.setCandidateStrategy(strategy);
+				expect(spellChecker, word, candidate, accuracy, strategy.name().toLowerCase(Locale.ROOT));
+			}
+			spellChecker.writeSnapshot(snapshotFile);
+			spellChecker.setSnapshot(SpellSnapshot.open(snapshotFile));
+			expect(spellChecker, word, candidate, accuracy, "snapshot");
+			spellChecker.setSnapshot(null);
+		}
+		spellDir.close();
+	}
+
+	private static void expect(NotaNgramSpellChecker spellChecker, String word, String candidate, float accuracy,
+			String path) throws IOException {
+		List<String> suggestions = Arrays.asList(spellChecker.suggestSimilar(word, 5, accuracy));
+		System.out.println(String.format(Locale.ROOT, "%s -> %s at %.7f (%s): %s", word, candidate, accuracy, path,
+				suggestions));
+		if (!suggestions.contains(candidate)) {
+			throw new IllegalStateException(String.format(Locale.ROOT, "%s misses %s for %s at accuracy %.7f", path,
+					candidate, word, accuracy));
+		}
+	}
+}
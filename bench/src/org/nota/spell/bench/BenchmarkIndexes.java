@@ -0,0 +1,73 @@
+package org.nota.spell.bench;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+/*
+ * Builds the indexes used by the benchmarks: a spell index created through NotaNgramSpellChecker.indexDictionary
+ * and a "user" index that plays the role of the main Solr index, holding every dictionary word in FIELD
+ * with a document frequency derived from the dictionary weight.
+ * */
+public final class BenchmarkIndexes {
+
+	public static final String FIELD = "text";
+
+	private BenchmarkIndexes() {
+	}
+
+	public static Directory userIndex(SyntheticDictionary dict) throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(null));
+		Document doc = new Document();
+		Field field = new StringField(FIELD, "", Field.Store.NO);
+		doc.add(field);
+		for (int i = 0; i < dict.size(); i++) {
+			field.setStringValue(dict.word(i));
+			// keep the user index small, a handful of documents per word is enough to get distinct frequencies
+			long copies = 1 + dict.weight(i) % 8;
+			for (long c = 0; c < copies; c++) {
+				writer.addDocument(doc);
+			}
+		}
+		writer.forceMerge(1);
+		writer.close();
+		return dir;
+	}
+
+	public static IndexReader open(Directory dir) throws IOException {
+		return DirectoryReader.open(dir);
+	}
+
+	public static void deleteRecursively(Path path) throws IOException {
+		if (path == null || !Files.exists(path)) {
+			return;
+		}
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,28 @@
+package org.nota.spell.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs the spell checker benchmarks with the GC profiler enabled, such that every result reports
+ * the allocation rate (gc.alloc.rate.norm is the number of bytes allocated per operation) next to
+ * throughput and average time.
+ * Any regular JMH command line option can be given, e.g. "SuggestSimilar -p wordLength=long".
+ * */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		if (cmd.getIncludes().isEmpty()) {
+			builder.include(BenchmarkMain.class.getPackage().getName() + ".*");
+		}
+		Options options = builder.parent(cmd).addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,68 @@
+package org.nota.spell.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.nota.spell.NotaNgramSpellChecker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures a full (re)build of the spell index from a synthetic dictionary of 100k to 5M words.
+ * Every invocation builds into a fresh directory on disk, the dictionary itself is generated once per trial.
+ * */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+@State(Scope.Benchmark)
+public class IndexDictionaryBenchmark {
+
+	@Param({ "100000", "1000000", "5000000" })
+	public int dictionarySize;
+
+	@Param({ "false" })
+	public boolean fullMerge;
+
+	private SyntheticDictionary dict;
+	private Path dir;
+
+	@Setup(Level.Trial)
+	public void setUpDictionary() {
+		dict = new SyntheticDictionary(dictionarySize, 42);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpDirectory() throws IOException {
+		dir = Files.createTempDirectory("spellbench");
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownDirectory() throws IOException {
+		BenchmarkIndexes.deleteRecursively(dir);
+	}
+
+	@Benchmark
+	public void indexDictionary() throws IOException {
+		try (FSDirectory directory = FSDirectory.open(dir);
+				NotaNgramSpellChecker spellChecker = new NotaNgramSpellChecker(directory)) {
+			spellChecker.indexDictionary(dict, new IndexWriterConfig(null), fullMerge);
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package org.nota.spell.bench;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.spell.PlainTextDictionary;
+import org.apache.lucene.search.spell.SuggestMode;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.nota.spell.CandidateStrategy;
+import org.nota.spell.LatencyHistogram;
+import org.nota.spell.NotaNgramSpellChecker;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/*
+ * Not a JMH benchmark: a load generator to see how the spell checker behaves under concurrent load with a
+ * realistic mix of queries, to size hardware and catch scaling regressions. Runs offline on one box, against a
+ * NotaNgramSpellChecker built in memory from a dictionary or against a core of a Solr home through an
+ * EmbeddedSolrServer, with the queries of a log or a synthetic stream: words drawn with a Zipf distribution over
+ * the dictionary, a share of them misspelled.
+ *
+ * Closed model: every thread sends its next query as soon as the previous one is answered (optionally paced to
+ * -rate over all threads). Open model: queries arrive at -rate per second no matter how fast they are answered, the
+ * latency is measured from the time a query was due, so a stall is not hidden by the queries that were never sent
+ * during it (coordinated omission). Use enough threads for the open model to keep up with the rate.
+ * Reports throughput, latency percentiles, GC pauses and the bytes allocated per query by the worker threads.
+ *
+ * Options:
+ *   -words <file>       one word per line, most frequent first, e.g. exported from the field of the main index
+ *                       (default: a synthetic dictionary)
+ *   -size <n>           size of the synthetic dictionary (default 100000)
+ *   -log <file>         replay a query log, one query per line, instead of the synthetic stream
+ *   -queries <n>        length of the synthetic stream, cycled (default 100000)
+ *   -zipf <s>           exponent of the Zipf distribution (default 1.0)
+ *   -typoRate <p>       share of misspelled words in the synthetic stream (default 0.3)
+ *   -edits <n>          typos per misspelled word (default 1)
+ *   -threads <n>        (default 64)
+ *   -model <m>          closed or open (default closed)
+ *   -rate <n>           queries per second over all threads, required for open, 0 for unpaced closed (default 0)
+ *   -warmup <s>         seconds of load before measuring (default 10)
+ *   -duration <s>       seconds measured (default 30)
+ *   -numSug <n>         suggestions asked for (default 5)
+ *   -strategy <s>       candidate strategy of the in-memory spell checker (default ngram_query)
+ *   -cacheSize <n>      suggestion cache of the in-memory spell checker (default 0)
+ *   -solrHome <dir>     run against a core of this Solr home instead
+ *   -core <name>        the core (default collection1)
+ *   -handler <path>     request handler with the spellcheck component (default /spell)
+ * */
+public class LoadTest {
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+		}
+		final int threads = Integer.parseInt(options.getOrDefault("threads", "64"));
+		final boolean open = "open".equalsIgnoreCase(options.getOrDefault("model", "closed"));
+		final double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+		final long warmupSeconds = Long.parseLong(options.getOrDefault("warmup", "10"));
+		final long durationSeconds = Long.parseLong(options.getOrDefault("duration", "30"));
+		final int numSug = Integer.parseInt(options.getOrDefault("numSug", "5"));
+		if (open && rate <= 0) {
+			throw new IllegalArgumentException("The open model needs a -rate");
+		}
+
+		final String[] words = loadWords(options);
+		final String[] queries = options.containsKey("log") ? loadLog(options.get("log"))
+				: zipfStream(words, Integer.parseInt(options.getOrDefault("queries", "100000")),
+						Double.parseDouble(options.getOrDefault("zipf", "1.0")),
+						Double.parseDouble(options.getOrDefault("typoRate", "0.3")),
+						Integer.parseInt(options.getOrDefault("edits", "1")), 13);
+		if (queries.length == 0) {
+			throw new IllegalStateException("No queries to send");
+		}
+
+		final Target target = options.containsKey("solrHome")
+				? new SolrTarget(options.get("solrHome"), options.getOrDefault("core", "collection1"),
+						options.getOrDefault("handler", "/spell"), numSug)
+				: new SpellCheckerTarget(words, options, numSug);
+		try {
+			System.out.println(String.format(Locale.ROOT, "%d words, %d queries, %d threads, %s model, rate %s",
+					words.length, queries.length, threads, open ? "open" : "closed",
+					rate > 0 ? String.format(Locale.ROOT, "%.0f/s", rate) : "unpaced"));
+			System.out.println("warming up for " + warmupSeconds + "s");
+			run(target, queries, threads, open, rate, warmupSeconds, null);
+			System.out.println("measuring for " + durationSeconds + "s");
+			Stats stats = new Stats();
+			GcListener gc = GcListener.install();
+			run(target, queries, threads, open, rate, durationSeconds, stats);
+			gc.uninstall();
+			report(stats, gc, durationSeconds);
+		} finally {
+			target.close();
+		}
+	}
+
+	/*
+	 * Sends queries from all threads for the given time, records into stats if not null
+	 */
+	private static void run(final Target target, final String[] queries, int threads, final boolean open,
+			final double rate, long seconds, final Stats stats) throws InterruptedException {
+		final long start = System.nanoTime();
+		final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		// with a rate query i is due at start + i * interval, the threads take the next due query in turn
+		final double interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+		final AtomicLong next = new AtomicLong();
+		final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int offset = t * (queries.length / threads);
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					final long allocatedBefore = allocatedBytes(threadBean);
+					int q = offset;
+					while (true) {
+						long due = System.nanoTime();
+						if (interval > 0) {
+							due = start + (long) (next.getAndIncrement() * interval);
+							if (due >= end) {
+								break;
+							}
+							final long wait = due - System.nanoTime();
+							if (wait > 0) {
+								LockSupport.parkNanos(wait);
+							}
+						} else if (due >= end) {
+							break;
+						}
+						// the open model counts from when the query was due, the closed one from when it was sent
+						final long sent = open ? due : System.nanoTime();
+						boolean failed = false;
+						try {
+							target.query(queries[q]);
+						} catch (Exception e) {
+							failed = true;
+						}
+						final long latency = System.nanoTime() - sent;
+						if (stats != null) {
+							stats.record(latency, failed);
+						}
+						if (++q == queries.length) {
+							q = 0;
+						}
+					}
+					if (stats != null) {
+						stats.allocated.add(allocatedBytes(threadBean) - allocatedBefore);
+					}
+				}
+			}, "loadtest-" + t);
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	// bytes allocated by the calling thread so far, -1 if the JVM can't tell
+	private static long allocatedBytes(ThreadMXBean threadBean) {
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadBean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static void report(Stats stats, GcListener gc, long seconds) {
+		final long count = stats.latencies.getCount();
+		System.out.println(String.format(Locale.ROOT, "queries\t%d (%d failed)", count, stats.failed.sum()));
+		System.out.println(String.format(Locale.ROOT, "throughput\t%.1f/s", (double) count / seconds));
+		System.out.println(String.format(Locale.ROOT, "latency(us)\tmean %.1f\tp50 %d\tp99 %d\tp999 %d\tmax %d",
+				stats.latencies.getMeanMicros(), stats.latencies.getMicrosAtPercentile(50),
+				stats.latencies.getMicrosAtPercentile(99), stats.latencies.getMicrosAtPercentile(99.9),
+				stats.latencies.getMaxMicros()));
+		System.out.println(String.format(Locale.ROOT, "gc\t%d pauses\ttotal %d ms\tmax %d ms", gc.pauses.sum(),
+				gc.totalMillis.sum(), gc.maxMillis.get()));
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			System.out.println(String.format(Locale.ROOT, "gc %s\t%d collections\t%d ms (since start)",
+					bean.getName(), bean.getCollectionCount(), bean.getCollectionTime()));
+		}
+		if (count > 0 && ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+			System.out.println(String.format(Locale.ROOT, "allocation\t%.1f MB/s\t%d bytes/query",
+					stats.allocated.sum() / 1048576.0 / seconds, stats.allocated.sum() / count));
+		}
+	}
+
+	private static String[] loadWords(Map<String, String> options) throws IOException {
+		if (options.containsKey("words")) {
+			List<String> list = new ArrayList<>();
+			for (String line : Files.readAllLines(Paths.get(options.get("words")), StandardCharsets.UTF_8)) {
+				if (!line.trim().isEmpty()) {
+					list.add(line.trim());
+				}
+			}
+			return list.toArray(new String[list.size()]);
+		}
+		SyntheticDictionary synthetic = new SyntheticDictionary(
+				Integer.parseInt(options.getOrDefault("size", "100000")), 42);
+		String[] words = new String[synthetic.size()];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = synthetic.word(i);
+		}
+		return words;
+	}
+
+	private static String[] loadLog(String file) throws IOException {
+		List<String> list = new ArrayList<>();
+		for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+			if (!line.trim().isEmpty()) {
+				list.add(line.trim());
+			}
+		}
+		return list.toArray(new String[list.size()]);
+	}
+
+	/*
+	 * count words drawn with probability proportional to 1 / (rank + 1)^s, the first word being the most frequent,
+	 * typoRate of them misspelled. Generated up front, such that the load test doesn't measure its own allocations.
+	 */
+	static String[] zipfStream(String[] words, int count, double s, double typoRate, int edits, long seed) {
+		final double[] cdf = new double[words.length];
+		double sum = 0;
+		for (int i = 0; i < words.length; i++) {
+			sum += 1 / Math.pow(i + 1, s);
+			cdf[i] = sum;
+		}
+		Random random = new Random(seed);
+		String[] stream = new String[count];
+		for (int i = 0; i < count; i++) {
+			int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+			if (rank < 0) {
+				rank = Math.min(words.length - 1, -rank - 1);
+			}
+			String word = words[rank];
+			stream[i] = random.nextDouble() < typoRate ? Typos.misspell(word, edits, random) : word;
+		}
+		return stream;
+	}
+
+	private interface Target {
+		void query(String query) throws Exception;
+
+		void close() throws IOException;
+	}
+
+	/*
+	 * A NotaNgramSpellChecker built in memory, every token of a query is a suggestSimilar call
+	 */
+	private static final class SpellCheckerTarget implements Target {
+		private final Directory spellDir = new RAMDirectory();
+		private final NotaNgramSpellChecker spellChecker;
+		private final int numSug;
+
+		SpellCheckerTarget(String[] words, Map<String, String> options, int numSug) throws IOException {
+			this.numSug = numSug;
+			spellChecker = new NotaNgramSpellChecker(spellDir);
+			Dictionary dict = options.containsKey("words")
+					? new PlainTextDictionary(
+							Files.newBufferedReader(Paths.get(options.get("words")), StandardCharsets.UTF_8))
+					: new SyntheticDictionary(Integer.parseInt(options.getOrDefault("size", "100000")), 42);
+			spellChecker.indexDictionary(dict, new IndexWriterConfig(null), true);
+			spellChecker.setCandidateStrategy(CandidateStrategy
+					.valueOf(options.getOrDefault("strategy", "ngram_query").toUpperCase(Locale.ROOT)));
+			spellChecker.setSuggestionCacheSize(Integer.parseInt(options.getOrDefault("cacheSize", "0")));
+		}
+
+		@Override
+		public void query(String query) throws IOException {
+			for (String token : query.split("\\s+")) {
+				if (!token.isEmpty()) {
+					spellChecker.suggestSimilar(token, numSug, null, null, SuggestMode.SUGGEST_ALWAYS);
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			spellChecker.close();
+			spellDir.close();
+		}
+	}
+
+	/*
+	 * A core of a Solr home in this JVM, every query is a request to the spellcheck handler
+	 */
+	private static final class SolrTarget implements Target {
+		private final EmbeddedSolrServer server;
+		private final String core;
+		private final String handler;
+		private final int numSug;
+
+		SolrTarget(String solrHome, String core, String handler, int numSug) {
+			this.server = new EmbeddedSolrServer(Paths.get(solrHome), core);
+			this.core = core;
+			this.handler = handler;
+			this.numSug = numSug;
+		}
+
+		@Override
+		public void query(String query) throws IOException, SolrServerException {
+			ModifiableSolrParams params = new ModifiableSolrParams();
+			params.set("q", query);
+			params.set("spellcheck", true);
+			params.set("spellcheck.q", query);
+			params.set("spellcheck.count", numSug);
+			params.set("rows", 0);
+			QueryRequest request = new QueryRequest(params);
+			request.setPath(handler);
+			request.process(server, core);
+		}
+
+		@Override
+		public void close() throws IOException {
+			server.close();
+		}
+	}
+
+	private static final class Stats {
+		final LatencyHistogram latencies = new LatencyHistogram();
+		final LongAdder failed = new LongAdder();
+		final LongAdder allocated = new LongAdder();
+
+		void record(long nanos, boolean failed) {
+			latencies.record(nanos);
+			if (failed) {
+				this.failed.increment();
+			}
+		}
+	}
+
+	/*
+	 * Collects the durations of the collections that happen while measuring from the GC notifications
+	 */
+	private static final class GcListener implements NotificationListener {
+		final LongAdder pauses = new LongAdder();
+		final LongAdder totalMillis = new LongAdder();
+		final AtomicLong maxMillis = new AtomicLong();
+		private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+		static GcListener install() {
+			GcListener listener = new GcListener();
+			for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+				if (bean instanceof NotificationEmitter) {
+					((NotificationEmitter) bean).addNotificationListener(listener, null, null);
+					listener.emitters.add((NotificationEmitter) bean);
+				}
+			}
+			return listener;
+		}
+
+		void uninstall() throws Exception {
+			for (NotificationEmitter emitter : emitters) {
+				emitter.removeNotificationListener(this);
+			}
+		}
+
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+				return;
+			}
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+					.from((CompositeData) notification.getUserData());
+			// the concurrent cycles of G1, ZGC and Shenandoah are reported as well, they don't stop the application
+			if (info.getGcAction().contains("concurrent") || info.getGcName().contains("Cycles")) {
+				return;
+			}
+			final long millis = info.getGcInfo().getDuration();
+			pauses.increment();
+			totalMillis.add(millis);
+			maxMillis.accumulateAndGet(millis, Math::max);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.nota.spell.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.BooleanQuery;
+import org.nota.spell.NGram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Measures the cost of building the n-gram query for a word and of creating the n-gram document for a word.
+ * The words cover all three n-gram size ranges used by NGram (<=2, 3-5 and >5 characters).
+ * */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NGramBenchmark {
+
+	@Param({ "al", "spell", "spellchecker", "internationalisation" })
+	public String word;
+
+	@Benchmark
+	public BooleanQuery buildNgramQuery() {
+		return NGram.buildNgramQuery(word).build();
+	}
+
+	@Benchmark
+	public Document createDocument() {
+		return NGram.createDocument(word);
+	}
+
+	@Benchmark
+	public void reusableDocument(Blackhole bh) throws IOException {
+		// consume the grams like the IndexWriter would, the reusable path only produces them on demand
+		for (IndexableField field : NGram.reusableDocument(word, 1)) {
+			if (field.fieldType().indexOptions() != IndexOptions.NONE && field.fieldType().tokenized()) {
+				TokenStream ts = field.tokenStream(null, null);
+				ts.reset();
+				while (ts.incrementToken()) {
+					bh.consume(ts);
+				}
+				ts.end();
+				ts.close();
+			} else {
+				bh.consume(field);
+			}
+		}
+	}
+}
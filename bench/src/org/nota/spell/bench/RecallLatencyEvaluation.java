@@ -0,0 +1,176 @@
+package org.nota.spell.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.spell.PlainTextDictionary;
+import org.apache.lucene.search.spell.SuggestMode;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.nota.spell.CandidateStrategy;
+import org.nota.spell.NotaNgramSpellChecker;
+import org.nota.spell.ScoredSuggestions;
+import org.nota.spell.SuggestBudget;
+
+/*
+ * Not a JMH benchmark: injects typos into words of a dictionary, asks for suggestions and reports for every
+ * combination of maxHits, hitsPerGram and earlyTerminationHits how often the original word comes back (recall@1
+ * and recall@numSug) next to the latency (p50, p99) and the mean number of distance computations per word.
+ * That is the trade-off to look at when tuning these settings for a deployment.
+ *
+ * Options, lists are comma separated:
+ *   -words <file>            one word per line, e.g. exported from the field of the main index (default: a synthetic dictionary)
+ *   -size <n>                size of the synthetic dictionary (default 100000)
+ *   -queries <n>             number of misspelled words (default 2000)
+ *   -edits <n>               typos per word (default 1)
+ *   -numSug <n>              suggestions asked for (default 5)
+ *   -strategy <list>         ngram_query, gram_overlap, deletes and/or automaton (default ngram_query)
+ *   -maxHits <list>          (default 100,250,500,1000)
+ *   -hitsPerGram <list>      0 for a fixed maxHits (default 0,10,25)
+ *   -earlyTermination <list> 0 for none (default 0,50,200)
+ * */
+public class RecallLatencyEvaluation {
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+		}
+		final int queryCount = Integer.parseInt(options.getOrDefault("queries", "2000"));
+		final int edits = Integer.parseInt(options.getOrDefault("edits", "1"));
+		final int numSug = Integer.parseInt(options.getOrDefault("numSug", "5"));
+
+		final String[] words;
+		final Dictionary dict;
+		if (options.containsKey("words")) {
+			List<String> lines = Files.readAllLines(Paths.get(options.get("words")), StandardCharsets.UTF_8);
+			List<String> list = new ArrayList<>();
+			for (String line : lines) {
+				if (!line.trim().isEmpty()) {
+					list.add(line.trim());
+				}
+			}
+			words = list.toArray(new String[list.size()]);
+			dict = new PlainTextDictionary(Files.newBufferedReader(Paths.get(options.get("words")),
+					StandardCharsets.UTF_8));
+		} else {
+			SyntheticDictionary synthetic = new SyntheticDictionary(
+					Integer.parseInt(options.getOrDefault("size", "100000")), 42);
+			words = new String[synthetic.size()];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = synthetic.word(i);
+			}
+			dict = synthetic;
+		}
+
+		// a typo that produces another dictionary word can't be expected to come back as the original
+		Set<String> known = new HashSet<>(Arrays.asList(words));
+		Random random = new Random(13);
+		List<String> originals = new ArrayList<>();
+		List<String> queries = new ArrayList<>();
+		for (int attempts = 0; queries.size() < queryCount && attempts < queryCount * 10; attempts++) {
+			String original = words[random.nextInt(words.length)];
+			String query = Typos.misspell(original, edits, random);
+			if (!query.isEmpty() && !known.contains(query)) {
+				originals.add(original);
+				queries.add(query);
+			}
+		}
+
+		if (queries.isEmpty()) {
+			throw new IllegalStateException("No misspelled words could be generated from the dictionary");
+		}
+
+		Directory spellDir = new RAMDirectory();
+		try (NotaNgramSpellChecker spellChecker = new NotaNgramSpellChecker(spellDir)) {
+			spellChecker.indexDictionary(dict, new IndexWriterConfig(null), true);
+			System.out.println(String.format(Locale.ROOT, "%d words, %d queries with %d edit(s), numSug %d",
+					words.length, queries.size(), edits, numSug));
+			System.out.println("strategy\tmaxHits\thitsPerGram\tearlyTermination\trecall@1\trecall@" + numSug
+					+ "\tp50(us)\tp99(us)\tdistances");
+			for (String strategy : list(options.getOrDefault("strategy", "ngram_query"))) {
+				spellChecker.setCandidateStrategy(CandidateStrategy.valueOf(strategy.toUpperCase(Locale.ROOT)));
+				for (String maxHits : list(options.getOrDefault("maxHits", "100,250,500,1000"))) {
+					spellChecker.setMaxHits(Integer.parseInt(maxHits));
+					for (String hitsPerGram : list(options.getOrDefault("hitsPerGram", "0,10,25"))) {
+						spellChecker.setHitsPerGram(Integer.parseInt(hitsPerGram));
+						for (String early : list(options.getOrDefault("earlyTermination", "0,50,200"))) {
+							spellChecker.setEarlyTerminationHits(Integer.parseInt(early));
+							// once to warm up, once measured
+							run(spellChecker, queries, originals, numSug);
+							Result r = run(spellChecker, queries, originals, numSug);
+							System.out.println(String.format(Locale.ROOT, "%s\t%s\t%s\t%s\t%.3f\t%.3f\t%.1f\t%.1f\t%.1f",
+									strategy, maxHits, hitsPerGram, early, r.recallAt1, r.recallAtK,
+									r.p50Nanos / 1000.0, r.p99Nanos / 1000.0, r.meanDistances));
+						}
+					}
+				}
+			}
+		}
+		spellDir.close();
+	}
+
+	private static Result run(NotaNgramSpellChecker spellChecker, List<String> queries, List<String> originals,
+			int numSug) throws IOException {
+		final int n = queries.size();
+		final long[] nanos = new long[n];
+		int top1 = 0;
+		int topK = 0;
+		long distances = 0;
+		for (int i = 0; i < n; i++) {
+			// no limits, only used to count the distance computations
+			SuggestBudget budget = new SuggestBudget(0, 0);
+			long start = System.nanoTime();
+			ScoredSuggestions suggestions = spellChecker.suggestSimilarScored(queries.get(i), numSug, null, null,
+					SuggestMode.SUGGEST_ALWAYS, spellChecker.getAccuracy(), budget);
+			nanos[i] = System.nanoTime() - start;
+			distances += budget.getDistances();
+			String original = originals.get(i);
+			if (suggestions.size() > 0 && suggestions.word(0).equals(original)) {
+				top1++;
+			}
+			if (suggestions.contains(original)) {
+				topK++;
+			}
+		}
+		Arrays.sort(nanos);
+		Result r = new Result();
+		r.recallAt1 = (double) top1 / n;
+		r.recallAtK = (double) topK / n;
+		r.p50Nanos = nanos[(int) (0.50 * (n - 1))];
+		r.p99Nanos = nanos[(int) (0.99 * (n - 1))];
+		r.meanDistances = (double) distances / n;
+		return r;
+	}
+
+	private static List<String> list(String value) {
+		List<String> res = new ArrayList<>();
+		for (String s : value.split(",")) {
+			if (!s.trim().isEmpty()) {
+				res.add(s.trim());
+			}
+		}
+		return res;
+	}
+
+	private static final class Result {
+		double recallAt1;
+		double recallAtK;
+		long p50Nanos;
+		long p99Nanos;
+		double meanDistances;
+	}
+}
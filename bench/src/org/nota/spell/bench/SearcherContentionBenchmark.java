@@ -0,0 +1,101 @@
+package org.nota.spell.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.nota.spell.NotaNgramSpellChecker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures how NotaNgramSpellChecker scales with many threads on the cheapest calls, where acquiring and
+ * releasing the searcher is a large part of the work: exist and frequency (from the spell index) for words of
+ * the dictionary.
+ * The swap group additionally replaces the searcher (setSnapshot(null) installs a new generation) from one
+ * thread while the others keep reading, readers should not slow down because of it.
+ * Compare the per thread throughput with -t 1 against the default of 64 threads.
+ * */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearcherContentionBenchmark {
+
+	@Param({ "100000" })
+	public int dictionarySize;
+
+	private Directory spellDir;
+	private NotaNgramSpellChecker spellChecker;
+	private String[] words;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		SyntheticDictionary dict = new SyntheticDictionary(dictionarySize, 42);
+		spellDir = new RAMDirectory();
+		spellChecker = new NotaNgramSpellChecker(spellDir);
+		spellChecker.indexDictionary(dict, new IndexWriterConfig(null), true);
+		words = dict.sample(1024, 2, 64, 7);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		spellChecker.close();
+		spellDir.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+
+		String next(String[] words) {
+			String word = words[next];
+			next = (next + 1) % words.length;
+			return word;
+		}
+	}
+
+	@Benchmark
+	@Threads(64)
+	public boolean exist(Cursor cursor) throws IOException {
+		return spellChecker.exist(cursor.next(words));
+	}
+
+	@Benchmark
+	@Threads(64)
+	public int frequency(Cursor cursor) throws IOException {
+		return spellChecker.frequency(cursor.next(words));
+	}
+
+	@Benchmark
+	@Group("swap")
+	@GroupThreads(63)
+	public boolean existWhileSwapping(Cursor cursor) throws IOException {
+		return spellChecker.exist(cursor.next(words));
+	}
+
+	@Benchmark
+	@Group("swap")
+	@GroupThreads(1)
+	public void swap() {
+		spellChecker.setSnapshot(null);
+	}
+}
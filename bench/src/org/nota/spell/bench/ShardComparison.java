@@ -0,0 +1,184 @@
+package org.nota.spell.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.spell.LevensteinDistance;
+import org.apache.lucene.search.spell.SuggestMode;
+import org.apache.lucene.search.spell.SuggestWordQueue;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.nota.spell.CandidateStrategy;
+import org.nota.spell.NotaNgramSpellChecker;
+import org.nota.spell.ScoredSuggestions;
+import org.nota.spell.ShardedNotaSpellChecker;
+
+/*
+ * Not a JMH benchmark: checks that a sharded spell index suggests exactly what a single one with candidateStrategy
+ * gram_overlap does. Both are built from the same synthetic dictionary and asked for the same misspelled words with
+ * every combination of the options, the output is the share of words that get exactly the same suggestions (same
+ * words, scores and order), the same best suggestion, and recall@1 / recall@numSug of both. Fails with an
+ * IllegalStateException on the first word with different suggestions.
+ *
+ * Options, lists are comma separated:
+ *   -size <n>     size of the synthetic dictionary (default 100000)
+ *   -queries <n>  number of misspelled words (default 2000)
+ *   -edits <n>    typos per word (default 1)
+ *   -numSug <n>   suggestions asked for (default 5)
+ *   -shards <list> (default 2,4,8)
+ *   -maxHits <list> (default 100,1000)
+ *   -hitsPerGram <list> (default 0,10)
+ *   -earlyTermination <list> (default 0,50)
+ * */
+public class ShardComparison {
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+		}
+		final int queryCount = Integer.parseInt(options.getOrDefault("queries", "2000"));
+		final int edits = Integer.parseInt(options.getOrDefault("edits", "1"));
+		final int numSug = Integer.parseInt(options.getOrDefault("numSug", "5"));
+		final SyntheticDictionary dict = new SyntheticDictionary(
+				Integer.parseInt(options.getOrDefault("size", "100000")), 42);
+
+		Set<String> known = new HashSet<>();
+		for (int i = 0; i < dict.size(); i++) {
+			known.add(dict.word(i));
+		}
+		Random random = new Random(13);
+		List<String> originals = new ArrayList<>();
+		List<String> queries = new ArrayList<>();
+		for (int attempts = 0; queries.size() < queryCount && attempts < queryCount * 10; attempts++) {
+			String original = dict.word(random.nextInt(dict.size()));
+			String query = Typos.misspell(original, edits, random);
+			if (!query.isEmpty() && !known.contains(query)) {
+				originals.add(original);
+				queries.add(query);
+			}
+		}
+
+		Directory singleDir = new RAMDirectory();
+		try (NotaNgramSpellChecker single = new NotaNgramSpellChecker(singleDir)) {
+			single.indexDictionary(dict, new IndexWriterConfig(null), true);
+			single.setCandidateStrategy(CandidateStrategy.GRAM_OVERLAP);
+			System.out.println(String.format(Locale.ROOT, "%d words, %d queries with %d edit(s), numSug %d",
+					dict.size(), queries.size(), edits, numSug));
+			System.out.println("shards\tmaxHits\thitsPerGram\tearlyTermination\tidentical\tsameTop\trecall@1(single)\trecall@1(sharded)\trecall@"
+					+ numSug + "(single)\trecall@" + numSug + "(sharded)");
+			for (String shardCount : list(options.getOrDefault("shards", "2,4,8"))) {
+				Directory[] dirs = new Directory[Integer.parseInt(shardCount)];
+				for (int i = 0; i < dirs.length; i++) {
+					dirs[i] = new RAMDirectory();
+				}
+				try (ShardedNotaSpellChecker sharded = new ShardedNotaSpellChecker(dirs, new LevensteinDistance(),
+						SuggestWordQueue.DEFAULT_COMPARATOR, null)) {
+					sharded.indexDictionary(dict, () -> new IndexWriterConfig(null), true, 1);
+					for (String maxHits : list(options.getOrDefault("maxHits", "100,1000"))) {
+						for (String hitsPerGram : list(options.getOrDefault("hitsPerGram", "0,10"))) {
+							for (String early : list(options.getOrDefault("earlyTermination", "0,50"))) {
+								for (NotaNgramSpellChecker spellChecker : all(single, sharded)) {
+									spellChecker.setMaxHits(Integer.parseInt(maxHits));
+									spellChecker.setHitsPerGram(Integer.parseInt(hitsPerGram));
+									spellChecker.setEarlyTerminationHits(Integer.parseInt(early));
+								}
+								compare(single, sharded, queries, originals, numSug,
+										shardCount + "\t" + maxHits + "\t" + hitsPerGram + "\t" + early);
+							}
+						}
+					}
+				}
+				for (Directory dir : dirs) {
+					dir.close();
+				}
+			}
+		}
+		singleDir.close();
+	}
+
+	private static List<NotaNgramSpellChecker> all(NotaNgramSpellChecker single, ShardedNotaSpellChecker sharded) {
+		List<NotaNgramSpellChecker> all = new ArrayList<>(sharded.getShards());
+		all.add(single);
+		return all;
+	}
+
+	private static void compare(NotaNgramSpellChecker single, ShardedNotaSpellChecker sharded, List<String> queries,
+			List<String> originals, int numSug, String settings) throws IOException {
+		final int n = queries.size();
+		int identical = 0;
+		int sameTop = 0;
+		String mismatch = null;
+		int[] top1 = new int[2];
+		int[] topK = new int[2];
+		for (int i = 0; i < n; i++) {
+			ScoredSuggestions[] results = {
+					single.suggestSimilarScored(queries.get(i), numSug, null, null, SuggestMode.SUGGEST_ALWAYS,
+							single.getAccuracy()),
+					sharded.suggestSimilarScored(queries.get(i), numSug, null, null, SuggestMode.SUGGEST_ALWAYS,
+							single.getAccuracy()) };
+			List<String> a = words(results[0]);
+			List<String> b = words(results[1]);
+			if (a.equals(b) && scores(results[0]).equals(scores(results[1]))) {
+				identical++;
+			} else {
+				mismatch = mismatch != null ? mismatch
+						: String.format(Locale.ROOT, "%s: %s single %s, sharded %s", settings.replace('\t', ' '),
+								queries.get(i), a, b);
+			}
+			if (a.isEmpty() ? b.isEmpty() : !b.isEmpty() && a.get(0).equals(b.get(0))) {
+				sameTop++;
+			}
+			String original = originals.get(i);
+			for (int j = 0; j < 2; j++) {
+				if (results[j].size() > 0 && results[j].word(0).equals(original)) {
+					top1[j]++;
+				}
+				if (results[j].contains(original)) {
+					topK[j]++;
+				}
+			}
+		}
+		System.out.println(String.format(Locale.ROOT, "%s\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f", settings,
+				(double) identical / n, (double) sameTop / n, (double) top1[0] / n, (double) top1[1] / n,
+				(double) topK[0] / n, (double) topK[1] / n));
+		if (mismatch != null) {
+			throw new IllegalStateException("Sharded suggestions differ from a single spell index, " + mismatch);
+		}
+	}
+
+	private static List<String> words(ScoredSuggestions suggestions) {
+		String[] words = new String[suggestions.size()];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = suggestions.word(i);
+		}
+		return Arrays.asList(words);
+	}
+
+	private static List<Float> scores(ScoredSuggestions suggestions) {
+		Float[] scores = new Float[suggestions.size()];
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = suggestions.score(i);
+		}
+		return Arrays.asList(scores);
+	}
+
+	private static List<String> list(String value) {
+		List<String> res = new ArrayList<>();
+		for (String s : value.split(",")) {
+			if (!s.trim().isEmpty()) {
+				res.add(s.trim());
+			}
+		}
+		return res;
+	}
+}
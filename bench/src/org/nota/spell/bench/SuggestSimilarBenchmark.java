@@ -0,0 +1,109 @@
+package org.nota.spell.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.spell.SuggestMode;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.nota.spell.CandidateStrategy;
+import org.nota.spell.NotaNgramSpellChecker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures NotaNgramSpellChecker.suggestSimilar for short (<=4), medium (5-8) and long (>=9) misspelled words,
+ * for all three suggest modes and with or without a user IndexReader.
+ * Without a user reader the spell checker falls back to SUGGEST_ALWAYS, so the suggestMode parameter only
+ * matters when withUserReader is true. Other candidate strategies are measured with e.g. -p candidateStrategy=DELETES.
+ * */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SuggestSimilarBenchmark {
+
+	@Param({ "100000" })
+	public int dictionarySize;
+
+	@Param({ "short", "medium", "long" })
+	public String wordLength;
+
+	@Param({ "SUGGEST_WHEN_NOT_IN_INDEX", "SUGGEST_MORE_POPULAR", "SUGGEST_ALWAYS" })
+	public SuggestMode suggestMode;
+
+	@Param({ "false", "true" })
+	public boolean withUserReader;
+
+	@Param({ "5" })
+	public int numSug;
+
+	@Param({ "NGRAM_QUERY" })
+	public CandidateStrategy candidateStrategy;
+
+	private Directory spellDir;
+	private Directory userDir;
+	private IndexReader userReader;
+	private NotaNgramSpellChecker spellChecker;
+	private String[] queries;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		SyntheticDictionary dict = new SyntheticDictionary(dictionarySize, 42);
+		spellDir = new RAMDirectory();
+		spellChecker = new NotaNgramSpellChecker(spellDir);
+		spellChecker.indexDictionary(dict, new IndexWriterConfig(null), true);
+		spellChecker.setCandidateStrategy(candidateStrategy);
+		if (withUserReader) {
+			userDir = BenchmarkIndexes.userIndex(dict);
+			userReader = BenchmarkIndexes.open(userDir);
+		}
+		String[] words;
+		if ("short".equals(wordLength)) {
+			words = dict.sample(1024, 2, 4, 7);
+		} else if ("medium".equals(wordLength)) {
+			words = dict.sample(1024, 5, 8, 7);
+		} else {
+			words = dict.sample(1024, 9, 64, 7);
+		}
+		queries = Typos.misspell(words, 1, 13);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		spellChecker.close();
+		if (userReader != null) {
+			userReader.close();
+			userDir.close();
+		}
+		spellDir.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Benchmark
+	public String[] suggestSimilar(Cursor cursor) throws IOException {
+		String word = queries[cursor.next];
+		cursor.next = (cursor.next + 1) % queries.length;
+		return spellChecker.suggestSimilar(word, numSug, withUserReader ? userReader : null,
+				withUserReader ? BenchmarkIndexes.FIELD : null, suggestMode);
+	}
+}
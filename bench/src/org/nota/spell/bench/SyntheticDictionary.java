@@ -0,0 +1,136 @@
+package org.nota.spell.bench;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.util.BytesRef;
+
+/*
+ * A deterministic, in-memory dictionary of made up words used by the benchmarks.
+ * Words are built from a small set of syllables so that the n-gram distribution looks a bit like
+ * a real language, they are unique and they are returned in BytesRef order, just like the
+ * HighFrequencyDictionary used by the NgramsBasedSpellChecker.
+ * Weights follow a Zipf like distribution such that frequency based suggest modes have something to work with.
+ * */
+public class SyntheticDictionary implements Dictionary {
+
+	private static final String[] SYLLABLES = { "a", "an", "ar", "be", "bo", "ca", "ch", "de", "di", "e", "el", "en",
+			"er", "fa", "ge", "ha", "he", "i", "in", "is", "ka", "la", "le", "li", "ma", "me", "mi", "mo", "na", "ne",
+			"ni", "o", "on", "or", "pa", "pe", "ra", "re", "ri", "ro", "sa", "se", "si", "sk", "st", "ta", "te", "ti",
+			"to", "u", "un", "ve", "vi", "y" };
+
+	private final String[] words;
+	private final long[] weights;
+
+	public SyntheticDictionary(int size, long seed) {
+		Random random = new Random(seed);
+		String[] generated = new String[size];
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			sb.setLength(0);
+			int syllables = 1 + random.nextInt(6);
+			for (int s = 0; s < syllables; s++) {
+				sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+			}
+			// make sure the word is unique by appending the index in base 26 if needed
+			if (random.nextInt(4) == 0 || sb.length() < 3) {
+				int n = i;
+				do {
+					sb.append((char) ('a' + n % 26));
+					n /= 26;
+				} while (n > 0);
+			}
+			generated[i] = sb.toString();
+		}
+		Arrays.sort(generated);
+		int unique = 0;
+		for (int i = 0; i < generated.length; i++) {
+			if (unique == 0 || !generated[i].equals(generated[unique - 1])) {
+				generated[unique++] = generated[i];
+			}
+		}
+		words = Arrays.copyOf(generated, unique);
+		weights = new long[unique];
+		for (int i = 0; i < unique; i++) {
+			// zipf like, rank is random so that frequent words are spread over the alphabet
+			weights[i] = 1 + (long) (1000000.0 / (1 + random.nextInt(unique)));
+		}
+	}
+
+	public int size() {
+		return words.length;
+	}
+
+	public String word(int i) {
+		return words[i];
+	}
+
+	public long weight(int i) {
+		return weights[i];
+	}
+
+	/*
+	 * Picks count words from the dictionary with a length between minLength and maxLength (both inclusive)
+	 * */
+	public String[] sample(int count, int minLength, int maxLength, long seed) {
+		Random random = new Random(seed);
+		String[] res = new String[count];
+		int found = 0;
+		int attempts = 0;
+		while (found < count && attempts < count * 1000) {
+			String w = words[random.nextInt(words.length)];
+			attempts++;
+			if (w.length() >= minLength && w.length() <= maxLength) {
+				res[found++] = w;
+			}
+		}
+		if (found == 0) {
+			throw new IllegalStateException("No words with length " + minLength + "-" + maxLength + " in dictionary");
+		}
+		return Arrays.copyOf(res, found);
+	}
+
+	@Override
+	public InputIterator getEntryIterator() throws IOException {
+		return new InputIterator() {
+			private int pos = -1;
+
+			@Override
+			public BytesRef next() throws IOException {
+				if (++pos >= words.length) {
+					return null;
+				}
+				return new BytesRef(words[pos]);
+			}
+
+			@Override
+			public long weight() {
+				return weights[pos];
+			}
+
+			@Override
+			public BytesRef payload() {
+				return null;
+			}
+
+			@Override
+			public boolean hasPayloads() {
+				return false;
+			}
+
+			@Override
+			public Set<BytesRef> contexts() {
+				return null;
+			}
+
+			@Override
+			public boolean hasContexts() {
+				return false;
+			}
+		};
+	}
+}
@@ -0,0 +1,50 @@
+package org.nota.spell.bench;
+
+import java.util.Random;
+
+/*
+ * Introduces random spelling mistakes into words: insertions, deletions, substitutions and transpositions.
+ * */
+public final class Typos {
+
+	private Typos() {
+	}
+
+	public static String misspell(String word, int edits, Random random) {
+		StringBuilder sb = new StringBuilder(word);
+		for (int e = 0; e < edits; e++) {
+			int len = sb.length();
+			int op = len < 2 ? 1 : random.nextInt(4);
+			int pos = random.nextInt(Math.max(len, 1));
+			char c = (char) ('a' + random.nextInt(26));
+			switch (op) {
+			case 0: // substitution
+				sb.setCharAt(pos, c);
+				break;
+			case 1: // insertion
+				sb.insert(pos, c);
+				break;
+			case 2: // deletion
+				sb.deleteCharAt(pos);
+				break;
+			default: // transposition
+				if (pos == len - 1) {
+					pos--;
+				}
+				char tmp = sb.charAt(pos);
+				sb.setCharAt(pos, sb.charAt(pos + 1));
+				sb.setCharAt(pos + 1, tmp);
+			}
+		}
+		return sb.toString();
+	}
+
+	public static String[] misspell(String[] words, int edits, long seed) {
+		Random random = new Random(seed);
+		String[] res = new String[words.length];
+		for (int i = 0; i < words.length; i++) {
+			res[i] = misspell(words[i], edits, random);
+		}
+		return res;
+	}
+}
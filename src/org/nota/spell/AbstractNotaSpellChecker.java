@@ -2,17 +2,38 @@ package org.nota.spell;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 
 import org.apache.lucene.analysis.Token;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.spell.Dictionary;
 import org.apache.lucene.search.spell.LevensteinDistance;
 import org.apache.lucene.search.spell.StringDistance;
+import org.apache.lucene.search.spell.SuggestMode;
 import org.apache.lucene.search.spell.SuggestWord;
 import org.apache.lucene.search.spell.SuggestWordFrequencyComparator;
 import org.apache.lucene.search.spell.SuggestWordQueue;
@@ -21,42 +42,105 @@ import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.FilterDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.spelling.SolrSpellChecker;
 import org.apache.solr.spelling.SpellingOptions;
 import org.apache.solr.spelling.SpellingResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Abstract base class for all Lucene-based spell checking implementations.
  */
 public abstract class AbstractNotaSpellChecker extends SolrSpellChecker {
 
+	private static final Logger LOG = LoggerFactory.getLogger(AbstractNotaSpellChecker.class);
+
 	public static final String SPELLCHECKER_ARG_NAME = "spellchecker";
 	public static final String LOCATION = "sourceLocation";
 	public static final String INDEX_DIR = "spellcheckIndexDir";
 	public static final String ACCURACY = "accuracy";
 	public static final String STRING_DISTANCE = "distanceMeasure";
 	public static final String COMPARATOR_CLASS = "comparatorClass";
+	public static final String SUGGESTION_CACHE_SIZE = "suggestionCacheSize";
+	public static final String TOKEN_THREADS = "tokenThreads";
+	public static final String CANDIDATE_STRATEGY = "candidateStrategy";
+	public static final String SPELL_INDEX_FREQUENCIES = "spellIndexFrequencies";
+	public static final String TOKEN_VIRTUAL_THREADS = "tokenVirtualThreads";
+	public static final String SNAPSHOT_FILE = "snapshotFile";
+	public static final String BACKGROUND_BUILD = "backgroundBuild";
+	public static final String WARMUP_WORDS = "warmupWords";
+	public static final String KNOWN_WORD_FILTER = "knownWordFilter";
+	public static final String SUGGEST_TIME_ALLOWED = "suggestTimeAllowed";
+	public static final String MAX_DISTANCE_COMPUTATIONS = "maxDistanceComputations";
+	public static final String MAX_HITS = "maxHits";
+	public static final String HITS_PER_GRAM = "hitsPerGram";
+	public static final String EARLY_TERMINATION_HITS = "earlyTerminationHits";
+	public static final String DELETE_DISTANCE = "deleteDistance";
+	public static final String DELETE_PREFIX_LENGTH = "deletePrefixLength";
+	public static final String AUTOMATON_DISTANCE = "automatonDistance";
+	public static final String AUTOMATON_PREFIX_LENGTH = "automatonPrefixLength";
+	public static final String SHARDS = "shards";
+	public static final String SHARD_THREADS = "shardThreads";
+	public static final String METRICS = "metrics";
+	public static final String METRICS_IN_RESPONSE = "metricsInResponse";
+
+	private static final Pattern GENERATION_DIR = Pattern.compile("gen-(\\d+)");
 
 	public static final String SCORE_COMP = "score";
 	public static final String FREQ_COMP = "freq";
 
 	protected org.nota.spell.NotaNgramSpellChecker spellChecker;
+	/*
+	 * With shards > 1 the words are spread over this many spell indexes, which serve the suggestions instead of
+	 * spellChecker. spellChecker keeps the settings, its spell index stays empty.
+	 */
+	protected ShardedNotaSpellChecker shardedSpellChecker;
 
 	protected String sourceLocation;
 	/*
 	 * The Directory containing the Spell checking index
 	 */
-	protected Directory index;
+	protected volatile Directory index;
 	protected Dictionary dictionary;
 
 	public static final int DEFAULT_SUGGESTION_COUNT = 5;
 	protected String indexDir;
+	/*
+	 * File the spell index is written to as a memory-mapped snapshot after every build, null if not configured
+	 */
+	protected Path snapshotFile;
+	/*
+	 * With backgroundBuild a full build goes to a new directory, on disk a new generation folder in indexDir, and
+	 * the current one keeps serving until the new one is built and warmed up with the warmupWords
+	 */
+	protected boolean backgroundBuild;
+	protected List<String> warmupWords = Collections.emptyList();
+	protected int indexGeneration;
 	protected float accuracy = 0.5f;
 	public static final String FIELD = "field";
 
 	protected StringDistance sd;
+	/*
+	 * Executor used to compute the suggestions of the tokens of one request in parallel, null when tokens are
+	 * handled one after another (the default)
+	 */
+	protected ExecutorService tokenExecutor;
+	// queries and builds the shards, null unless sharded with shardThreads > 0
+	protected ExecutorService shardExecutor;
+	/*
+	 * Budget of one getSuggestions call, in milliseconds and distance computations, 0 for no limit
+	 */
+	protected int suggestTimeAllowed;
+	protected int maxDistanceComputations;
+	/*
+	 * Counters and latencies of the spell checker(s), null unless metrics is enabled. With metricsInResponse the
+	 * NotaSpellingResult of a request asking for extended results carries the numbers of that request.
+	 */
+	protected SpellMetrics metrics;
+	protected boolean metricsInResponse;
 
 	@Override
 	public String init(NamedList config, SolrCore core) {
@@ -69,6 +153,13 @@ public abstract class AbstractNotaSpellChecker extends SolrSpellChecker {
 				indexDir = core.getDataDir() + File.separator + indexDir;
 			}
 		}
+		String snapshot = (String) config.get(SNAPSHOT_FILE);
+		if (snapshot != null) {
+			snapshotFile = Paths.get(snapshot);
+			if (!snapshotFile.isAbsolute()) {
+				snapshotFile = Paths.get(core.getDataDir()).resolve(snapshot);
+			}
+		}
 		sourceLocation = (String) config.get(LOCATION);
 		String compClass = (String) config.get(COMPARATOR_CLASS);
 		Comparator<SuggestWord> comp = null;
@@ -91,9 +182,15 @@ public abstract class AbstractNotaSpellChecker extends SolrSpellChecker {
 		} else {
 			sd = new LevensteinDistance();
 		}
+		backgroundBuild = getBoolean(config, BACKGROUND_BUILD, false);
+		warmupWords = getStringList(config, WARMUP_WORDS);
 		try {
 			initIndex();
 			spellChecker = new NotaNgramSpellChecker(index, sd, comp);
+			// serve from the snapshot of the last build right away, the spell index may still be empty
+			if (snapshotFile != null && Files.exists(snapshotFile)) {
+				spellChecker.setSnapshot(SpellSnapshot.open(snapshotFile));
+			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -105,67 +202,305 @@ public abstract class AbstractNotaSpellChecker extends SolrSpellChecker {
 				throw new RuntimeException("Unparseable accuracy given for dictionary: " + name, e);
 			}
 		}
+		spellChecker.setSuggestionCacheSize(getInt(config, SUGGESTION_CACHE_SIZE, 0));
+		if (getBoolean(config, METRICS, false)) {
+			metrics = new SpellMetrics();
+			spellChecker.setMetrics(metrics);
+			metricsInResponse = getBoolean(config, METRICS_IN_RESPONSE, false);
+			registerMetrics(core);
+		}
+		spellChecker.setUseSpellIndexFrequencies(getBoolean(config, SPELL_INDEX_FREQUENCIES, false));
+		spellChecker.setKnownWordFilter(getBoolean(config, KNOWN_WORD_FILTER, false));
+		try {
+			spellChecker.setMaxHits(getInt(config, MAX_HITS, NotaNgramSpellChecker.DEFAULT_MAX_HITS));
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException("Invalid maxHits given for dictionary: " + name, e);
+		}
+		spellChecker.setHitsPerGram(getInt(config, HITS_PER_GRAM, 0));
+		spellChecker.setEarlyTerminationHits(getInt(config, EARLY_TERMINATION_HITS, 0));
+		suggestTimeAllowed = getInt(config, SUGGEST_TIME_ALLOWED, 0);
+		maxDistanceComputations = getInt(config, MAX_DISTANCE_COMPUTATIONS, 0);
+		try {
+			// before the strategy, such that the delete variants are built once
+			spellChecker.setDeleteDistance(
+					getInt(config, DELETE_DISTANCE, NotaNgramSpellChecker.DEFAULT_DELETE_DISTANCE));
+			spellChecker.setDeletePrefixLength(
+					getInt(config, DELETE_PREFIX_LENGTH, NotaNgramSpellChecker.DEFAULT_DELETE_PREFIX_LENGTH));
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException("Invalid deleteDistance or deletePrefixLength given for dictionary: " + name,
+					e);
+		}
+		try {
+			spellChecker.setAutomatonDistance(
+					getInt(config, AUTOMATON_DISTANCE, NotaNgramSpellChecker.DEFAULT_AUTOMATON_DISTANCE));
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException("Invalid automatonDistance given for dictionary: " + name, e);
+		}
+		spellChecker.setAutomatonPrefixLength(getInt(config, AUTOMATON_PREFIX_LENGTH, 0));
+		String candidateStrategy = (String) config.get(CANDIDATE_STRATEGY);
+		if (candidateStrategy != null) {
+			try {
+				spellChecker.setCandidateStrategy(
+						CandidateStrategy.valueOf(candidateStrategy.trim().toUpperCase(Locale.ROOT)));
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException("Unknown candidateStrategy given for dictionary: " + name, e);
+			}
+		}
+		int shards = getInt(config, SHARDS, 1);
+		if (shards > 1) {
+			if (snapshotFile != null || backgroundBuild) {
+				throw new RuntimeException(
+						"snapshotFile and backgroundBuild can't be combined with shards for dictionary: " + name);
+			}
+			// shards always retrieve by gram overlap, which is what keeps their suggestions identical to one index
+			if (candidateStrategy != null && spellChecker.getCandidateStrategy() != CandidateStrategy.GRAM_OVERLAP) {
+				throw new RuntimeException(
+						"Shards only support candidateStrategy gram_overlap for dictionary: " + name);
+			}
+			spellChecker.setCandidateStrategy(CandidateStrategy.GRAM_OVERLAP);
+			try {
+				initShards(shards, comp, getInt(config, SHARD_THREADS, Runtime.getRuntime().availableProcessors()));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		int tokenThreads = getInt(config, TOKEN_THREADS, 0);
+		if (tokenThreads > 0) {
+			tokenExecutor = SpellExecutors.newBoundedExecutor("spellcheck-" + name, tokenThreads,
+					getBoolean(config, TOKEN_VIRTUAL_THREADS, false));
+		}
+		// a reload creates a new core with a new spell checker, this one is closed with the old core
+		core.addCloseHook(new CloseHook() {
+			@Override
+			public void preClose(SolrCore core) {
+			}
+
+			@Override
+			public void postClose(SolrCore core) {
+				shutdown();
+			}
+		});
 		return name;
 	}
 
+	/*
+	 * Called once the core is closed, on unload and reload: stops the executors and closes the spell index.
+	 * Subclasses stop their own work first and then call this.
+	 */
+	protected void shutdown() {
+		if (tokenExecutor != null) {
+			tokenExecutor.shutdown();
+		}
+		if (shardExecutor != null) {
+			shardExecutor.shutdown();
+		}
+		try {
+			spellChecker.close();
+		} catch (IOException | RuntimeException e) {
+			LOG.warn("Could not close spell checker index {}", name, e);
+		}
+		if (shardedSpellChecker != null) {
+			try {
+				shardedSpellChecker.close();
+			} catch (IOException | RuntimeException e) {
+				LOG.warn("Could not close the shards of spell checker index {}", name, e);
+			}
+		}
+	}
+
+	/*
+	 * Opens the shards in indexDir/shard-0 to shard-(n-1), or in memory, with the settings of spellChecker
+	 */
+	private void initShards(int shards, Comparator<SuggestWord> comp, int shardThreads) throws IOException {
+		Directory[] dirs = new Directory[shards];
+		for (int i = 0; i < shards; i++) {
+			if (indexDir != null) {
+				// the same workaround as in openIndexDirectory
+				dirs[i] = new FilterDirectory(FSDirectory.open(Paths.get(indexDir, "shard-" + i))) {
+				};
+			} else {
+				dirs[i] = new RAMDirectory();
+			}
+		}
+		// the calling thread queries one of the shards itself
+		shardExecutor = shardThreads > 0
+				? SpellExecutors.newBoundedExecutor("spellcheck-shards-" + name, shardThreads, false) : null;
+		shardedSpellChecker = new ShardedNotaSpellChecker(dirs, sd, comp, shardExecutor);
+		for (NotaNgramSpellChecker shard : shardedSpellChecker.getShards()) {
+			shard.setAccuracy(spellChecker.getAccuracy());
+			shard.setUseSpellIndexFrequencies(spellChecker.isUseSpellIndexFrequencies());
+			shard.setKnownWordFilter(spellChecker.isKnownWordFilter());
+			shard.setMaxHits(spellChecker.getMaxHits());
+			shard.setHitsPerGram(spellChecker.getHitsPerGram());
+			shard.setEarlyTerminationHits(spellChecker.getEarlyTerminationHits());
+			shard.setDeleteDistance(spellChecker.getDeleteDistance());
+			shard.setDeletePrefixLength(spellChecker.getDeletePrefixLength());
+			shard.setAutomatonDistance(spellChecker.getAutomatonDistance());
+			shard.setAutomatonPrefixLength(spellChecker.getAutomatonPrefixLength());
+			shard.setCandidateStrategy(spellChecker.getCandidateStrategy());
+		}
+		// recorded once per word for all shards
+		shardedSpellChecker.setMetrics(metrics);
+	}
+
+	/*
+	 * Exposes the metrics as gauges in the metrics registry of the core, under QUERY.spellcheck.<dictionary name>.
+	 * A reloaded core replaces the gauges of the previous spell checker.
+	 */
+	private void registerMetrics(SolrCore core) {
+		final MetricRegistry registry = core.getCoreContainer().getMetricManager()
+				.registry(core.getCoreMetricManager().getRegistryName());
+		final String prefix = MetricRegistry.name("QUERY", "spellcheck", name);
+		for (Map.Entry<String, LongAdder> counter : metrics.getCounters().entrySet()) {
+			final LongAdder adder = counter.getValue();
+			register(registry, MetricRegistry.name(prefix, counter.getKey()), () -> adder.sum());
+		}
+		for (Map.Entry<String, LatencyHistogram> entry : metrics.getHistograms().entrySet()) {
+			final LatencyHistogram histogram = entry.getValue();
+			final String histogramName = MetricRegistry.name(prefix, entry.getKey());
+			register(registry, MetricRegistry.name(histogramName, "count"), () -> histogram.getCount());
+			register(registry, MetricRegistry.name(histogramName, "mean_us"), () -> histogram.getMeanMicros());
+			register(registry, MetricRegistry.name(histogramName, "p50_us"),
+					() -> histogram.getMicrosAtPercentile(50));
+			register(registry, MetricRegistry.name(histogramName, "p99_us"),
+					() -> histogram.getMicrosAtPercentile(99));
+			register(registry, MetricRegistry.name(histogramName, "p999_us"),
+					() -> histogram.getMicrosAtPercentile(99.9));
+			register(registry, MetricRegistry.name(histogramName, "max_us"), () -> histogram.getMaxMicros());
+		}
+	}
+
+	private static void register(MetricRegistry registry, String metricName, Gauge<?> gauge) {
+		registry.remove(metricName);
+		registry.register(metricName, gauge);
+	}
+
+	/*
+	 * Reads a boolean parameter given either as <bool> or <str> in solrconfig.xml
+	 */
+	protected boolean getBoolean(NamedList config, String paramName, boolean defaultValue) {
+		Object value = config.get(paramName);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+		return Boolean.parseBoolean(value.toString().trim());
+	}
+
+	/*
+	 * Reads a list of strings given either as <arr> or as a comma separated <str> in solrconfig.xml
+	 */
+	protected List<String> getStringList(NamedList config, String paramName) {
+		Object value = config.get(paramName);
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		List<String> result = new ArrayList<>();
+		Iterable<?> values = value instanceof Iterable ? (Iterable<?>) value
+				: Arrays.asList(value.toString().split(","));
+		for (Object v : values) {
+			String s = v.toString().trim();
+			if (!s.isEmpty()) {
+				result.add(s);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Reads an int parameter given either as <int> or <str> in solrconfig.xml
+	 */
+	protected int getInt(NamedList config, String paramName, int defaultValue) {
+		Object value = config.get(paramName);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		try {
+			return Integer.parseInt(value.toString().trim());
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Unparseable " + paramName + " given for dictionary: " + name, e);
+		}
+	}
+
+	/*
+	 * Reads a double parameter given either as <double> or <str> in solrconfig.xml
+	 */
+	protected double getDouble(NamedList config, String paramName, double defaultValue) {
+		Object value = config.get(paramName);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		try {
+			return Double.parseDouble(value.toString().trim());
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Unparseable " + paramName + " given for dictionary: " + name, e);
+		}
+	}
+
 	@Override
 	public SpellingResult getSuggestions(SpellingOptions options) throws IOException {
-		SpellingResult result = new SpellingResult(options.tokens);
-		IndexReader reader = determineReader(options.reader);
-		Term term = field != null ? new Term(field, "") : null;
-		float theAccuracy = (options.accuracy == Float.MIN_VALUE) ? spellChecker.getAccuracy() : options.accuracy;
+		final long start = metrics != null ? System.nanoTime() : 0;
+		NotaSpellingResult result = new NotaSpellingResult(options.tokens);
+		final boolean statsInResponse = metricsInResponse && options.extendedResults;
+		// without limits a budget only counts the distance computations, for the response
+		final SuggestBudget budget = suggestTimeAllowed > 0 || maxDistanceComputations > 0 || statsInResponse
+				? new SuggestBudget(suggestTimeAllowed, maxDistanceComputations) : null;
+		final IndexReader reader = determineReader(options.reader);
+		final float theAccuracy = (options.accuracy == Float.MIN_VALUE) ? spellChecker.getAccuracy()
+				: options.accuracy;
+		final int count = Math.max(options.count, AbstractNotaSpellChecker.DEFAULT_SUGGESTION_COUNT);
+
+		// a token that is repeated within the request is only looked up once
+		Map<String, TokenSuggestions> computed = computeTokenSuggestions(options, reader, theAccuracy, count,
+				budget);
 
-		int count = Math.max(options.count, AbstractNotaSpellChecker.DEFAULT_SUGGESTION_COUNT);
 		for (Token token : options.tokens) {
 			String tokenText = new String(token.buffer(), 0, token.length());
-			term = new Term(field, tokenText);
-			int docFreq = 0;
-			if (reader != null) {
-				docFreq = reader.docFreq(term);
-			}
-			String[] suggestions = spellChecker.suggestSimilar(tokenText,
-					((options.alternativeTermCount == 0 || docFreq == 0) ? count : options.alternativeTermCount),
-					field != null ? reader : null, // workaround LUCENE-1295
-					field, options.suggestMode, theAccuracy);
-			if (suggestions.length == 1 && suggestions[0].equals(tokenText) && options.alternativeTermCount == 0) {
+			TokenSuggestions tokenSuggestions = computed.get(tokenText);
+			int docFreq = tokenSuggestions.docFreq;
+			ScoredSuggestions suggestions = tokenSuggestions.suggestions;
+			if (suggestions.size() == 1 && suggestions.word(0).equals(tokenText) && options.alternativeTermCount == 0) {
 				// These are spelled the same, continue on
 				continue;
 			}
 			// If considering alternatives to "correctly-spelled" terms, then add the
-			// original as a viable suggestion.
-			if (options.alternativeTermCount > 0 && docFreq > 0) {
-				boolean foundOriginal = false;
-				String[] suggestionsWithOrig = new String[suggestions.length + 1];
-				for (int i = 0; i < suggestions.length; i++) {
-					if (suggestions[i].equals(tokenText)) {
-						foundOriginal = true;
-						break;
-					}
-					suggestionsWithOrig[i + 1] = suggestions[i];
-				}
-				if (!foundOriginal) {
-					suggestionsWithOrig[0] = tokenText;
-					suggestions = suggestionsWithOrig;
-				}
-			}
+			// original as a viable suggestion, in front of the others.
+			final int offset = options.alternativeTermCount > 0 && docFreq > 0 && !suggestions.contains(tokenText)
+					? 1 : 0;
+			final int total = suggestions.size() + offset;
 
 			if (options.extendedResults == true && reader != null && field != null) {
 				result.addFrequency(token, docFreq);
-				int countLimit = Math.min(options.count, suggestions.length);
+				int countLimit = Math.min(options.count, total);
 				if (countLimit > 0) {
 					for (int i = 0; i < countLimit; i++) {
-						term = new Term(field, suggestions[i]);
-						result.add(token, suggestions[i], reader.docFreq(term));
+						if (i < offset) {
+							result.add(token, tokenText, docFreq);
+							continue;
+						}
+						String suggestion = suggestions.word(i - offset);
+						// the frequencies come with the suggestions, unless suggestSimilar had no use for them
+						result.add(token, suggestion, suggestions.hasFrequencies() ? suggestions.freq(i - offset)
+								: frequency(reader, suggestion));
 					}
 				} else {
 					List<String> suggList = Collections.emptyList();
 					result.add(token, suggList);
 				}
 			} else {
-				if (suggestions.length > 0) {
-					List<String> suggList = Arrays.asList(suggestions);
-					if (suggestions.length > options.count) {
-						suggList = suggList.subList(0, options.count);
+				if (total > 0) {
+					int countLimit = Math.min(options.count, total);
+					List<String> suggList = new ArrayList<>(countLimit);
+					for (int i = 0; i < countLimit; i++) {
+						suggList.add(i < offset ? tokenText : suggestions.word(i - offset));
 					}
 					result.add(token, suggList);
 				} else {
@@ -174,13 +509,152 @@ public abstract class AbstractNotaSpellChecker extends SolrSpellChecker {
 				}
 			}
 		}
+		if (budget != null) {
+			result.setTruncated(budget.isTruncated());
+		}
+		if (metrics != null) {
+			final long nanos = System.nanoTime() - start;
+			metrics.recordRequest(nanos);
+			if (statsInResponse) {
+				NamedList<Object> stats = new NamedList<>();
+				stats.add("tokens", computed.size());
+				stats.add("distanceCalls", budget.getDistances());
+				stats.add("truncated", budget.isTruncated());
+				stats.add("elapsedMicros", TimeUnit.NANOSECONDS.toMicros(nanos));
+				result.setStats(stats);
+			}
+		}
 		return result;
 	}
 
+	/*
+	 * Computes the suggestions of every distinct token text. If a token executor is configured and there is
+	 * more than one distinct token, all but the first token are handed to the executor and the calling thread
+	 * computes the first one itself. Results are merged back in token order by the caller.
+	 */
+	private Map<String, TokenSuggestions> computeTokenSuggestions(final SpellingOptions options,
+			final IndexReader reader, final float theAccuracy, final int count, final SuggestBudget budget)
+			throws IOException {
+		Map<String, TokenSuggestions> computed = new HashMap<>();
+		final ExecutorService executor = tokenExecutor;
+		if (executor == null || options.tokens.size() < 2) {
+			for (Token token : options.tokens) {
+				String tokenText = new String(token.buffer(), 0, token.length());
+				if (!computed.containsKey(tokenText)) {
+					computed.put(tokenText, suggestToken(options, reader, tokenText, theAccuracy, count, budget));
+				}
+			}
+			return computed;
+		}
+
+		String first = null;
+		Map<String, Future<TokenSuggestions>> futures = new HashMap<>();
+		for (Token token : options.tokens) {
+			final String tokenText = new String(token.buffer(), 0, token.length());
+			if (first == null) {
+				first = tokenText;
+			} else if (!tokenText.equals(first) && !futures.containsKey(tokenText)) {
+				futures.put(tokenText, executor.submit(new Callable<TokenSuggestions>() {
+					@Override
+					public TokenSuggestions call() throws IOException {
+						return suggestToken(options, reader, tokenText, theAccuracy, count, budget);
+					}
+				}));
+			}
+		}
+		try {
+			computed.put(first, suggestToken(options, reader, first, theAccuracy, count, budget));
+			for (Map.Entry<String, Future<TokenSuggestions>> entry : futures.entrySet()) {
+				computed.put(entry.getKey(), entry.getValue().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while computing suggestions", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			for (Future<TokenSuggestions> future : futures.values()) {
+				future.cancel(false);
+			}
+		}
+		return computed;
+	}
+
+	private TokenSuggestions suggestToken(SpellingOptions options, IndexReader reader, String tokenText,
+			float theAccuracy, int count, SuggestBudget budget) throws IOException {
+		if (options.suggestMode == SuggestMode.SUGGEST_WHEN_NOT_IN_INDEX && options.alternativeTermCount == 0
+				&& reader != null && field != null && isKnownWord(tokenText)) {
+			// spelled correctly, getSuggestions skips the token without looking at its docFreq
+			return new TokenSuggestions(0, ScoredSuggestions.single(tokenText, 0, false));
+		}
+		int docFreq = 0;
+		if (reader != null) {
+			docFreq = frequency(reader, tokenText);
+		}
+		final int numSug = (options.alternativeTermCount == 0 || docFreq == 0) ? count : options.alternativeTermCount;
+		final IndexReader ir = field != null ? reader : null; // workaround LUCENE-1295
+		ScoredSuggestions suggestions = shardedSpellChecker != null
+				? shardedSpellChecker.suggestSimilarScored(tokenText, numSug, ir, field, options.suggestMode,
+						theAccuracy, budget)
+				: spellChecker.suggestSimilarScored(tokenText, numSug, ir, field, options.suggestMode, theAccuracy,
+						budget);
+		return new TokenSuggestions(docFreq, suggestions);
+	}
+
+	/*
+	 * The frequency of a word in the field of the (user) index, taken from the spell index if configured and it was
+	 * built with frequencies
+	 */
+	protected int frequency(IndexReader reader, String word) throws IOException {
+		if (spellChecker.isUseSpellIndexFrequencies()) {
+			final int freq = shardedSpellChecker != null ? shardedSpellChecker.storedFrequency(word)
+					: spellChecker.storedFrequency(word);
+			if (freq >= 0) {
+				return freq;
+			}
+		}
+		return reader.docFreq(new Term(field, word));
+	}
+
+	private boolean isKnownWord(String word) {
+		return shardedSpellChecker != null ? shardedSpellChecker.isKnownWord(word) : spellChecker.isKnownWord(word);
+	}
+
+	/*
+	 * The frequency of a token in the (user) index and its suggestions
+	 */
+	private static final class TokenSuggestions {
+		final int docFreq;
+		final ScoredSuggestions suggestions;
+
+		TokenSuggestions(int docFreq, ScoredSuggestions suggestions) {
+			this.docFreq = docFreq;
+			this.suggestions = suggestions;
+		}
+	}
+
 	protected IndexReader determineReader(IndexReader reader) {
 		return reader;
 	}
 
+	/*
+	 * Writes the spell index to the snapshot file and serves suggestions from the new snapshot, does nothing if no
+	 * snapshotFile is configured. To be called after the spell index changed.
+	 */
+	protected void updateSnapshot() throws IOException {
+		if (snapshotFile != null) {
+			spellChecker.writeSnapshot(snapshotFile);
+			spellChecker.setSnapshot(SpellSnapshot.open(snapshotFile));
+		}
+	}
+
 	@Override
 	public void reload(SolrCore core, SolrIndexSearcher searcher) throws IOException {
 		spellChecker.setSpellIndex(index);
@@ -195,7 +669,20 @@ public abstract class AbstractNotaSpellChecker extends SolrSpellChecker {
 	 *             If there is a low-level I/O error.
 	 */
 	protected void initIndex() throws IOException {
+		if (indexDir != null && backgroundBuild) {
+			// continue with the last complete generation, the others are left over from an interrupted build
+			indexGeneration = latestGeneration();
+			deleteGenerationsExcept(indexGeneration);
+		}
+		index = openIndexDirectory(indexGeneration);
+	}
+
+	/*
+	 * The directory of the given generation of the spell index, generations are only used with backgroundBuild
+	 */
+	protected Directory openIndexDirectory(int generation) throws IOException {
 		if (indexDir != null) {
+			File dir = backgroundBuild ? new File(indexDir, "gen-" + generation) : new File(indexDir);
 			// TODO: this is a workaround for SpellChecker repeatedly closing and opening a
 			// new IndexWriter while leaving readers open, which on
 			// Windows causes problems because deleted files can't be opened. It would be
@@ -203,10 +690,68 @@ public abstract class AbstractNotaSpellChecker extends SolrSpellChecker {
 			// and close it on close, but Solr never seems to close its spell checkers.
 			// Wrapping as FilterDirectory prevents IndexWriter from
 			// catching the pending deletions:
-			index = new FilterDirectory(FSDirectory.open(new File(indexDir).toPath())) {
+			return new FilterDirectory(FSDirectory.open(dir.toPath())) {
 			};
 		} else {
-			index = new RAMDirectory();
+			return new RAMDirectory();
+		}
+	}
+
+	/*
+	 * The highest generation in indexDir holding a committed index, 0 if there is none
+	 */
+	private int latestGeneration() throws IOException {
+		int latest = 0;
+		File[] dirs = new File(indexDir).listFiles();
+		if (dirs == null) {
+			return latest;
+		}
+		for (File dir : dirs) {
+			Matcher m = GENERATION_DIR.matcher(dir.getName());
+			if (!m.matches()) {
+				continue;
+			}
+			int generation = Integer.parseInt(m.group(1));
+			if (generation > latest) {
+				try (Directory d = FSDirectory.open(dir.toPath())) {
+					if (DirectoryReader.indexExists(d)) {
+						latest = generation;
+					}
+				}
+			}
+		}
+		return latest;
+	}
+
+	private void deleteGenerationsExcept(int generation) throws IOException {
+		File[] dirs = new File(indexDir).listFiles();
+		if (dirs == null) {
+			return;
+		}
+		for (File dir : dirs) {
+			Matcher m = GENERATION_DIR.matcher(dir.getName());
+			if (m.matches() && Integer.parseInt(m.group(1)) != generation) {
+				deleteGeneration(Integer.parseInt(m.group(1)));
+			}
+		}
+	}
+
+	/*
+	 * Deletes the folder of the given generation, does nothing for an in memory spell index
+	 */
+	protected void deleteGeneration(int generation) throws IOException {
+		if (indexDir == null) {
+			return;
+		}
+		Path dir = Paths.get(indexDir, "gen-" + generation);
+		if (!Files.exists(dir)) {
+			return;
+		}
+		try (Stream<Path> paths = Files.walk(dir)) {
+			// children before their parents
+			for (Path p : (Iterable<Path>) paths.sorted(Collections.reverseOrder())::iterator) {
+				Files.delete(p);
+			}
 		}
 	}
 
@@ -234,6 +779,13 @@ public abstract class AbstractNotaSpellChecker extends SolrSpellChecker {
 		return fieldTypeName;
 	}
 
+	/*
+	 * @return the snapshot file, null if not configured
+	 */
+	public Path getSnapshotFile() {
+		return snapshotFile;
+	}
+
 	/*
 	 * @return the Index directory
 	 */
@@ -256,4 +808,11 @@ public abstract class AbstractNotaSpellChecker extends SolrSpellChecker {
 	public NotaNgramSpellChecker getSpellChecker() {
 		return spellChecker;
 	}
+
+	/*
+	 * @return the shards serving the suggestions, null unless shards is configured
+	 */
+	public ShardedNotaSpellChecker getShardedSpellChecker() {
+		return shardedSpellChecker;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package org.nota.spell;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+
+/*
+ * Candidate generation for suggestSimilar with a Levenshtein automaton, see CandidateStrategy.AUTOMATON.
+ * The automaton accepts every word within maxEdits edits (transpositions count as one, like FuzzyQuery) that
+ * starts with the first prefixLength chars of the word, and is intersected with the terms of the word field, so
+ * only the terms dictionary is walked and no gram postings are scored. The terms are intersected once per number of
+ * edits, closest first, so a short word with thousands of words within two edits still gets those within one.
+ * The configured StringDistance decides about the candidates afterwards, transpositions only make the candidates a
+ * superset of the Levenshtein ones.
+ * */
+final class AutomatonCandidates {
+
+	private AutomatonCandidates() {
+	}
+
+	/**
+	 * @return the docIds (global to reader) of at most maxHits live words within maxEdits edits of the given word,
+	 *         holding minLength to maxLength chars, closest first: all words within one edit come before the words
+	 *         within two edits (in term order among the same number of edits), like the top terms of a FuzzyQuery
+	 */
+	static int[] topCandidates(IndexReader reader, String field, String word, int maxEdits, int prefixLength,
+			int maxHits, SpellWords words, int minLength, int maxLength) throws IOException {
+		final int codePoints = word.codePointCount(0, word.length());
+		final int prefixEnd = word.offsetByCodePoints(0, Math.min(prefixLength, codePoints));
+		final LevenshteinAutomata automata = new LevenshteinAutomata(word.substring(prefixEnd), true);
+		final String prefix = word.substring(0, prefixEnd);
+
+		int[] docs = new int[Math.min(maxHits, 16)];
+		int found = 0;
+		PostingsEnum postings = null;
+		// accepts the words of the fewer edits already collected
+		ByteRunAutomaton closer = null;
+		// one pass over the terms per number of edits, such that maxHits cuts the farthest words
+		for (int edits = Math.min(1, maxEdits); edits <= maxEdits && found < maxHits; edits++) {
+			final Automaton automaton = automata.toAutomaton(edits, prefix);
+			final CompiledAutomaton compiled = new CompiledAutomaton(automaton, true, false);
+			for (LeafReaderContext ctx : reader.leaves()) {
+				final LeafReader leaf = ctx.reader();
+				final Terms terms = leaf.terms(field);
+				if (terms == null) {
+					continue;
+				}
+				final Bits liveDocs = leaf.getLiveDocs();
+				final TermsEnum te = compiled.getTermsEnum(terms);
+				BytesRef term;
+				while (found < maxHits && (term = te.next()) != null) {
+					if (closer != null && closer.run(term.bytes, term.offset, term.length)) {
+						continue;
+					}
+					postings = te.postings(postings, PostingsEnum.NONE);
+					for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings
+							.nextDoc()) {
+						if (liveDocs != null && !liveDocs.get(doc)) {
+							continue;
+						}
+						final int id = ctx.docBase + doc;
+						final int length = words.length(id);
+						if (length < minLength || length > maxLength || found == maxHits) {
+							continue;
+						}
+						if (found == docs.length) {
+							docs = Arrays.copyOf(docs, Math.min(maxHits, found * 2));
+						}
+						docs[found++] = id;
+					}
+				}
+			}
+			closer = compiled.runAutomaton;
+		}
+		return found == docs.length ? docs : Arrays.copyOf(docs, found);
+	}
+}
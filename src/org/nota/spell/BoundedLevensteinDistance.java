@@ -0,0 +1,281 @@
+package org.nota.spell;
+
+import org.apache.lucene.search.spell.LevensteinDistance;
+import org.apache.lucene.search.spell.StringDistance;
+
+/*
+ * Levenshtein distance returning exactly the same scores as the Lucene LevensteinDistance
+ * (1 - edits / max(length)), but bounded: given the lowest score of interest, the number of edits that may
+ * still be afforded is known up front and the computation stops as soon as it is exceeded.
+ *
+ * If one of the two words has 64 characters or fewer the bit-parallel algorithm of Myers (in the global
+ * edit distance form of Hyyro) is used, otherwise a Levenshtein matrix restricted to the band of allowed edits.
+ * The bit masks and rows are kept in thread local buffers, the masks of the last pattern are reused as long
+ * as the same word is passed, which is the case for the whole candidate loop of suggestSimilar.
+ * */
+public final class BoundedLevensteinDistance implements BoundedStringDistance {
+
+	private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+	/**
+	 * Returns a bounded version of the given distance: the distance itself if it is already bounded, a
+	 * {@link BoundedLevensteinDistance} for the plain Lucene {@link LevensteinDistance} and null otherwise.
+	 */
+	public static BoundedStringDistance bounded(StringDistance sd) {
+		if (sd instanceof BoundedStringDistance) {
+			return (BoundedStringDistance) sd;
+		}
+		if (sd != null && sd.getClass() == LevensteinDistance.class) {
+			return new BoundedLevensteinDistance();
+		}
+		return null;
+	}
+
+	@Override
+	public float getDistance(String target, String other) {
+		return getDistance(target, other, Float.NEGATIVE_INFINITY);
+	}
+
+	@Override
+	public float getDistance(String target, String other, float minScore) {
+		final int n = target.length();
+		final int m = other.length();
+		if (n == 0 || m == 0) {
+			return n == m ? 1 : 0;
+		}
+		final int maxLen = Math.max(n, m);
+		final int k = maxEdits(maxLen, minScore);
+		// k < maxLen implies minScore > 0, so 0 is always lower than minScore when rejecting
+		if (k < 0 || Math.abs(n - m) > k) {
+			return 0;
+		}
+		final State state = STATE.get();
+		final int edits;
+		if (n <= 64) {
+			edits = state.myers(target, other, k);
+		} else if (m <= 64) {
+			edits = state.myers(other, target, k);
+		} else {
+			edits = state.banded(target, other, k);
+		}
+		if (edits > k) {
+			return 0;
+		}
+		return 1.0f - ((float) edits / maxLen);
+	}
+
+	/*
+	 * A shorter word needs at least length - candidateLength deletions, with max(length) = length.
+	 * */
+	@Override
+	public int minCandidateLength(int length, float minScore) {
+		if (minScore <= 0f) {
+			return 0;
+		}
+		int k = maxEdits(length, minScore);
+		return k < 0 ? Integer.MAX_VALUE : Math.max(0, length - k);
+	}
+
+	/*
+	 * A longer word needs at least candidateLength - length insertions while the allowed number of edits grows
+	 * with the candidate length, roughly up to length / minScore. The difference between the two never decreases,
+	 * so walking down from just above that estimate finds the end of the window.
+	 * */
+	@Override
+	public int maxCandidateLength(int length, float minScore) {
+		if (minScore <= 0f) {
+			return Integer.MAX_VALUE;
+		}
+		if (maxEdits(length, minScore) < 0) {
+			return -1;
+		}
+		double estimate = length / (double) minScore + 2;
+		if (estimate > (1 << 20)) {
+			return Integer.MAX_VALUE;
+		}
+		int c = Math.max(length, (int) estimate);
+		while (c > length && c - length > maxEdits(c, minScore)) {
+			c--;
+		}
+		return c;
+	}
+
+	/*
+	 * The largest number of edits for which the score is still >= minScore, computed with the same float
+	 * arithmetic as the score itself such that no candidate on the boundary is lost. -1 if even equal words
+	 * do not reach minScore.
+	 * */
+	static int maxEdits(int maxLen, float minScore) {
+		if (minScore <= 0f) {
+			return maxLen;
+		}
+		int k = (int) ((1f - minScore) * maxLen);
+		if (k > maxLen) {
+			k = maxLen;
+		} else if (k < 0) {
+			k = 0;
+		}
+		while (k < maxLen && 1.0f - ((float) (k + 1) / maxLen) >= minScore) {
+			k++;
+		}
+		while (k >= 0 && 1.0f - ((float) k / maxLen) < minScore) {
+			k--;
+		}
+		return k;
+	}
+
+	@Override
+	public int hashCode() {
+		return 163 * getClass().hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj != null && getClass() == obj.getClass();
+	}
+
+	@Override
+	public String toString() {
+		return "levenstein";
+	}
+
+	private static final class State {
+		// match masks of the current pattern, directly addressed for ASCII and a small list for other chars
+		private final long[] asciiMasks = new long[128];
+		private final char[] otherChars = new char[64];
+		private final long[] otherMasks = new long[64];
+		private int otherCount;
+		private String pattern;
+
+		private int[] prev = new int[0];
+		private int[] cur = new int[0];
+
+		private void setPattern(String p) {
+			if (p == pattern) {
+				return;
+			}
+			if (pattern != null) {
+				for (int i = 0; i < pattern.length(); i++) {
+					char c = pattern.charAt(i);
+					if (c < 128) {
+						asciiMasks[c] = 0;
+					}
+				}
+			}
+			otherCount = 0;
+			for (int i = 0; i < p.length(); i++) {
+				char c = p.charAt(i);
+				if (c < 128) {
+					asciiMasks[c] |= 1L << i;
+				} else {
+					int j = 0;
+					while (j < otherCount && otherChars[j] != c) {
+						j++;
+					}
+					if (j == otherCount) {
+						otherChars[j] = c;
+						otherMasks[j] = 0;
+						otherCount++;
+					}
+					otherMasks[j] |= 1L << i;
+				}
+			}
+			pattern = p;
+		}
+
+		private long mask(char c) {
+			if (c < 128) {
+				return asciiMasks[c];
+			}
+			for (int j = 0; j < otherCount; j++) {
+				if (otherChars[j] == c) {
+					return otherMasks[j];
+				}
+			}
+			return 0;
+		}
+
+		/*
+		 * Edit distance between pattern (at most 64 chars) and text, or any value > k if it is larger than k.
+		 * */
+		int myers(String p, String text, int k) {
+			setPattern(p);
+			final int n = p.length();
+			final int m = text.length();
+			final long last = 1L << (n - 1);
+			long vp = n == 64 ? -1L : (1L << n) - 1;
+			long vn = 0;
+			int score = n;
+			for (int j = 0; j < m; j++) {
+				final long eq = mask(text.charAt(j));
+				final long xv = eq | vn;
+				final long xh = (((eq & vp) + vp) ^ vp) | eq;
+				long hp = vn | ~(xh | vp);
+				long hn = vp & xh;
+				if ((hp & last) != 0) {
+					score++;
+				} else if ((hn & last) != 0) {
+					score--;
+				}
+				hp = (hp << 1) | 1;
+				hn = hn << 1;
+				vp = hn | ~(xv | hp);
+				vn = hp & xv;
+				// every remaining char of text can lower the distance by at most one
+				if (score - (m - j - 1) > k) {
+					return k + 1;
+				}
+			}
+			return score;
+		}
+
+		/*
+		 * Levenshtein matrix restricted to the diagonals |i - j| <= k, cells outside the band are > k anyway.
+		 * */
+		int banded(String target, String other, int k) {
+			final int n = target.length();
+			final int m = other.length();
+			if (prev.length < m + 1) {
+				prev = new int[m + 1];
+				cur = new int[m + 1];
+			}
+			int[] p = prev;
+			int[] d = cur;
+			final int big = k + 1;
+			for (int j = 0; j <= m; j++) {
+				p[j] = j <= k ? j : big;
+			}
+			for (int i = 1; i <= n; i++) {
+				final int from = Math.max(1, i - k);
+				final int to = Math.min(m, i + k);
+				d[0] = i <= k ? i : big;
+				int rowMin = from == 1 ? d[0] : big;
+				if (from > 1) {
+					d[from - 1] = big;
+				}
+				final char ti = target.charAt(i - 1);
+				for (int j = from; j <= to; j++) {
+					int v = p[j - 1] + (ti == other.charAt(j - 1) ? 0 : 1);
+					v = Math.min(v, Math.min(p[j], d[j - 1]) + 1);
+					if (v > big) {
+						v = big;
+					}
+					d[j] = v;
+					if (v < rowMin) {
+						rowMin = v;
+					}
+				}
+				if (to < m) {
+					d[to + 1] = big;
+				}
+				if (rowMin > k) {
+					return big;
+				}
+				int[] tmp = p;
+				p = d;
+				d = tmp;
+			}
+			return p[m];
+		}
+	}
+}
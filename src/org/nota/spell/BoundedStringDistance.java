@@ -0,0 +1,40 @@
+package org.nota.spell;
+
+import org.apache.lucene.search.spell.StringDistance;
+
+/*
+ * A StringDistance that can stop early once it is known that two strings will not reach a given score.
+ * In suggestSimilar the lowest score in the (full) suggestion queue is known before a candidate is scored, so
+ * computing the exact distance of a candidate that can never enter the queue is wasted work.
+ * */
+public interface BoundedStringDistance extends StringDistance {
+
+	/**
+	 * Returns the similarity between s1 and s2, exactly as {@link #getDistance(String, String)} would, as long as
+	 * it is greater than or equal to minScore.
+	 *
+	 * @param s1
+	 *            first string
+	 * @param s2
+	 *            second string
+	 * @param minScore
+	 *            the lowest score the caller is interested in
+	 * @return the similarity of the two strings, or any value lower than minScore if the similarity is lower
+	 *         than minScore
+	 */
+	float getDistance(String s1, String s2, float minScore);
+
+	/**
+	 * The shortest word that can still reach minScore against a word of the given length.
+	 */
+	default int minCandidateLength(int length, float minScore) {
+		return 0;
+	}
+
+	/**
+	 * The longest word that can still reach minScore against a word of the given length.
+	 */
+	default int maxCandidateLength(int length, float minScore) {
+		return Integer.MAX_VALUE;
+	}
+}
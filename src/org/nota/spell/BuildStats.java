@@ -0,0 +1,70 @@
+package org.nota.spell;
+
+import java.util.Locale;
+
+/*
+ * Statistics of one run of NotaNgramSpellChecker.indexDictionary or updateDictionary
+ * */
+public final class BuildStats {
+
+	private final long wordsRead;
+	private final long wordsAdded;
+	private final long wordsDeleted;
+	private final long millis;
+	private final int threads;
+
+	BuildStats(long wordsRead, long wordsAdded, long millis, int threads) {
+		this(wordsRead, wordsAdded, 0, millis, threads);
+	}
+
+	BuildStats(long wordsRead, long wordsAdded, long wordsDeleted, long millis, int threads) {
+		this.wordsRead = wordsRead;
+		this.wordsAdded = wordsAdded;
+		this.wordsDeleted = wordsDeleted;
+		this.millis = millis;
+		this.threads = threads;
+	}
+
+	/*
+	 * @return the number of words read from the dictionary
+	 */
+	public long getWordsRead() {
+		return wordsRead;
+	}
+
+	/*
+	 * @return the number of words added to the spell index, words already in the index are skipped
+	 */
+	public long getWordsAdded() {
+		return wordsAdded;
+	}
+
+	/*
+	 * @return the number of words removed from the spell index, only an incremental update removes words
+	 */
+	public long getWordsDeleted() {
+		return wordsDeleted;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/*
+	 * @return words read from the dictionary per second
+	 */
+	public double getWordsPerSecond() {
+		return millis == 0 ? wordsRead * 1000.0 : wordsRead * 1000.0 / millis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT,
+				"read %d words, added %d, deleted %d in %d ms using %d thread(s) (%.0f words/s)", wordsRead,
+				wordsAdded, wordsDeleted, millis, threads, getWordsPerSecond());
+	}
+}
@@ -0,0 +1,30 @@
+package org.nota.spell;
+
+/*
+ * How suggestSimilar retrieves the candidate words from the spell index before they are scored with the
+ * StringDistance.
+ * */
+public enum CandidateStrategy {
+	/*
+	 * A BooleanQuery with one SHOULD clause per gram (duplicates included), the top hits by BM25 score are used.
+	 * This is the original behaviour.
+	 */
+	NGRAM_QUERY,
+	/*
+	 * The postings of every distinct gram are walked once and the number of shared grams is counted per word,
+	 * words that share too few grams to be within the accuracy are dropped and the top hits by overlap are used.
+	 */
+	GRAM_OVERLAP,
+	/*
+	 * The words are kept in memory under all variants with up to deleteDistance chars deleted (of their first
+	 * deletePrefixLength chars), the candidates are the words sharing a variant with the word, see
+	 * DeleteNeighbourhood. Only finds words within deleteDistance edits (in the prefix), but with a few hash lookups.
+	 */
+	DELETES,
+	/*
+	 * A Levenshtein automaton of the word (automatonDistance edits, the first automatonPrefixLength chars fixed) is
+	 * intersected with the terms of the word field, like FuzzyQuery does. If it finds fewer words than suggestions
+	 * were asked for, the word is further away from the others and the candidates of NGRAM_QUERY are added.
+	 */
+	AUTOMATON
+}
@@ -0,0 +1,223 @@
+package org.nota.spell;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.Bits;
+
+/*
+ * Candidate generation for suggestSimilar based on deletes, see CandidateStrategy.DELETES (the SymSpell approach).
+ * Every word is stored under all variants of its first prefixLength chars with up to maxEdits chars deleted. Two
+ * words within maxEdits edits of each other (insertions, deletions, substitutions) share at least one of these
+ * variants, so the candidates of a word are found by generating the variants of the word and looking them up,
+ * a handful of hash lookups instead of a search. The candidates still have to be checked with the StringDistance,
+ * sharing a variant doesn't mean being close: words beyond the prefix are not compared at all.
+ * Variants are stored as a 64 bit hash in an open addressing table, the words of a variant as a linked list of
+ * word ids in primitive arrays. A hash collision only adds a candidate, never loses one.
+ * */
+final class DeleteNeighbourhood {
+
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	private final int maxEdits;
+	private final int prefixLength;
+	// hash of the variant in the slot, 0 for an empty slot
+	private final long[] keys;
+	// first entry of the variant in the slot
+	private final int[] heads;
+	// word id and next entry of the same variant (-1 at the end) per entry
+	private final int[] ids;
+	private final int[] next;
+
+	private DeleteNeighbourhood(int maxEdits, int prefixLength, long[] keys, int[] heads, int[] ids, int[] next) {
+		this.maxEdits = maxEdits;
+		this.prefixLength = prefixLength;
+		this.keys = keys;
+		this.heads = heads;
+		this.ids = ids;
+		this.next = next;
+	}
+
+	/*
+	 * The variants of the live words with ids 0 to size - 1, deleted words and empty ids (length 0) are left out
+	 */
+	static DeleteNeighbourhood build(SpellWords words, int size, Bits liveDocs, int maxEdits, int prefixLength) {
+		final Scratch scratch = new Scratch();
+		long[] keys = new long[1024];
+		int[] heads = new int[1024];
+		int distinct = 0;
+		int[] ids = new int[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, size * 2L))];
+		int[] next = new int[ids.length];
+		int entries = 0;
+		for (int id = 0; id < size; id++) {
+			if (words.length(id) == 0 || (liveDocs != null && !liveDocs.get(id))) {
+				continue;
+			}
+			final int variants = scratch.variants(words.word(id), maxEdits, prefixLength);
+			for (int v = 0; v < variants; v++) {
+				final long key = scratch.hashes[v];
+				if (distinct * 2 >= keys.length) {
+					// keep the load at most 0.5
+					final long[] oldKeys = keys;
+					final int[] oldHeads = heads;
+					keys = new long[oldKeys.length * 2];
+					heads = new int[keys.length];
+					for (int s = 0; s < oldKeys.length; s++) {
+						if (oldKeys[s] != 0) {
+							final int slot = slot(keys, oldKeys[s]);
+							keys[slot] = oldKeys[s];
+							heads[slot] = oldHeads[s];
+						}
+					}
+				}
+				final int slot = slot(keys, key);
+				if (keys[slot] == 0) {
+					keys[slot] = key;
+					heads[slot] = -1;
+					distinct++;
+				}
+				if (entries == ids.length) {
+					ids = Arrays.copyOf(ids, entries + (entries >> 1));
+					next = Arrays.copyOf(next, ids.length);
+				}
+				ids[entries] = id;
+				next[entries] = heads[slot];
+				heads[slot] = entries++;
+			}
+		}
+		return new DeleteNeighbourhood(maxEdits, prefixLength, keys, heads, Arrays.copyOf(ids, entries),
+				Arrays.copyOf(next, entries));
+	}
+
+	// the slot holding the key, or the empty slot where it goes
+	private static int slot(long[] keys, long key) {
+		final int mask = keys.length - 1;
+		int slot = (int) (key ^ (key >>> 32)) & mask;
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return the ids of at most maxHits words sharing a variant with the given word and holding minLength to
+	 *         maxLength chars, the ones closest to the length of the word first
+	 */
+	int[] candidates(String word, SpellWords words, int maxHits, int minLength, int maxLength) {
+		final Scratch scratch = SCRATCH.get();
+		final int variants = scratch.variants(word, maxEdits, prefixLength);
+		int found = 0;
+		for (int v = 0; v < variants; v++) {
+			final int slot = slot(keys, scratch.hashes[v]);
+			if (keys[slot] == 0) {
+				continue;
+			}
+			for (int e = heads[slot]; e != -1; e = next[e]) {
+				final int id = ids[e];
+				final int length = words.length(id);
+				if (length < minLength || length > maxLength) {
+					continue;
+				}
+				// closest length first, then by id, which also brings the duplicates together
+				found = scratch.add(found, ((long) Math.abs(length - word.length()) << 32) | id);
+			}
+		}
+		Arrays.sort(scratch.found, 0, found);
+		int[] result = new int[Math.min(found, maxHits)];
+		int n = 0;
+		long previous = -1;
+		for (int i = 0; i < found && n < result.length; i++) {
+			if (scratch.found[i] != previous) {
+				previous = scratch.found[i];
+				result[n++] = (int) previous;
+			}
+		}
+		return n == result.length ? result : Arrays.copyOf(result, n);
+	}
+
+	int getMaxEdits() {
+		return maxEdits;
+	}
+
+	int getPrefixLength() {
+		return prefixLength;
+	}
+
+	long ramBytesUsed() {
+		return 32L + 12L * keys.length + 8L * ids.length;
+	}
+
+	private static final class Scratch {
+		private char[] chars = new char[16];
+		private int[] skipped = new int[4];
+		private long[] hashes = new long[64];
+		private long[] found = new long[256];
+		private int count;
+
+		/*
+		 * Puts the distinct hashes of the variants of the first prefixLength chars of word with up to maxEdits chars
+		 * deleted into hashes, returns their number
+		 */
+		int variants(String word, int maxEdits, int prefixLength) {
+			final int len = Math.min(word.length(), prefixLength);
+			if (chars.length < len) {
+				chars = new char[len];
+			}
+			word.getChars(0, len, chars, 0);
+			if (skipped.length < maxEdits) {
+				skipped = new int[maxEdits];
+			}
+			count = 0;
+			collect(len, Math.min(maxEdits, len), 0, 0);
+			Arrays.sort(hashes, 0, count);
+			int distinct = 0;
+			for (int i = 0; i < count; i++) {
+				if (distinct == 0 || hashes[i] != hashes[distinct - 1]) {
+					hashes[distinct++] = hashes[i];
+				}
+			}
+			return distinct;
+		}
+
+		// the variant without the chars at skipped[0..deletes), then all variants deleting more chars after start
+		private void collect(int len, int maxEdits, int deletes, int start) {
+			if (count == hashes.length) {
+				hashes = Arrays.copyOf(hashes, count * 2);
+			}
+			hashes[count++] = hash(len, deletes);
+			if (deletes == maxEdits) {
+				return;
+			}
+			for (int i = start; i < len; i++) {
+				skipped[deletes] = i;
+				collect(len, maxEdits, deletes + 1, i + 1);
+			}
+		}
+
+		private long hash(int len, int deletes) {
+			long h = 0xCBF29CE484222325L ^ (len - deletes);
+			int s = 0;
+			for (int i = 0; i < len; i++) {
+				if (s < deletes && skipped[s] == i) {
+					s++;
+					continue;
+				}
+				h = (h ^ chars[i]) * 0x100000001B3L;
+			}
+			// murmur3 fmix64, 0 marks an empty slot
+			h ^= h >>> 33;
+			h *= 0xFF51AFD7ED558CCDL;
+			h ^= h >>> 33;
+			h *= 0xC4CEB93FE1A85EC3L;
+			h ^= h >>> 33;
+			return h == 0 ? 1 : h;
+		}
+
+		int add(int found, long candidate) {
+			if (found == this.found.length) {
+				this.found = Arrays.copyOf(this.found, found * 2);
+			}
+			this.found[found] = candidate;
+			return found + 1;
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package org.nota.spell;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+
+/*
+ * Candidate generation for suggestSimilar based on gram overlap, see CandidateStrategy.GRAM_OVERLAP.
+ * Instead of scoring a BooleanQuery of SHOULD clauses with BM25, the postings of every distinct gram are walked
+ * once and the number of shared grams is counted per document in a primitive array. Documents below the
+ * minimum overlap are dropped, the others compete for the maxHits slots by overlap. Ties are broken by the hash of
+ * the word and then the word itself, not by docId, such that the order only depends on the words: the shards of a
+ * ShardedNotaSpellChecker rank their words exactly like a single spell index holding all of them.
+ * The counters are kept per thread and only the touched slots are reset, so a query allocates little more
+ * than its result.
+ * */
+final class GramOverlapCandidates {
+
+	// only used for the candidate length window, stateless
+	private static final BoundedLevensteinDistance LEVENSHTEIN = new BoundedLevensteinDistance();
+	private static final ThreadLocal<Accumulator> ACCUMULATOR = ThreadLocal.withInitial(Accumulator::new);
+
+	private GramOverlapCandidates() {
+	}
+
+	/**
+	 * The minimum number of distinct grams a word must share with the given word to be able to reach the
+	 * accuracy under Levenshtein distance, 1 if nothing better can be said. Only to be used with
+	 * LevensteinDistance, other distances don't bound the number of edits.
+	 *
+	 * A word within e edits shares at least (distinct grams of size n) - n * e grams of size n, since one edit
+	 * destroys at most n grams. A candidate of length l may have as many edits as
+	 * BoundedLevensteinDistance.maxEdits(max(length, l), accuracy), computed with the float arithmetic of the score
+	 * such that a candidate right on the accuracy isn't lost. Words of other lengths are indexed with other gram
+	 * sizes, so the bound is computed for every length in the feasible window using only the gram sizes both
+	 * lengths have in common.
+	 */
+	static int minOverlap(String word, List<Term> distinctGrams, float accuracy) {
+		final int len = word.length();
+		if (accuracy <= 0f || accuracy > 1f || len == 0) {
+			return 1;
+		}
+		final int minLen = Math.max(1, LEVENSHTEIN.minCandidateLength(len, accuracy));
+		final int maxLen = LEVENSHTEIN.maxCandidateLength(len, accuracy);
+		if (maxLen < minLen) {
+			return 1;
+		}
+
+		// number of distinct grams per gram size, sizes go up to 4 in NGram
+		int[] distinct = new int[5];
+		for (Term t : distinctGrams) {
+			distinct[Integer.parseInt(t.field().substring(4))]++;
+		}
+		int min = Integer.MAX_VALUE;
+		// the gram size brackets only change at lengths 2 and 5 and the allowed edits only grow with the length,
+		// so the first and last length of every bracket within the window are enough
+		int[] lengths = { minLen, Math.min(2, maxLen), Math.min(3, maxLen), Math.min(5, maxLen), Math.min(6, maxLen),
+				maxLen };
+		for (int l : lengths) {
+			if (l < minLen || l > maxLen) {
+				continue;
+			}
+			final int edits = BoundedLevensteinDistance.maxEdits(Math.max(len, l), accuracy);
+			int bound = 0;
+			for (int ng = Math.max(NGram.getMin(len), NGram.getMin(l)); ng <= Math.min(NGram.getMax(len),
+					NGram.getMax(l)); ng++) {
+				bound += Math.max(0, distinct[ng] - ng * edits);
+			}
+			min = Math.min(min, bound);
+		}
+		return Math.max(1, min == Integer.MAX_VALUE ? 1 : min);
+	}
+
+	/**
+	 * @return the docIds (global to reader) of at most maxHits documents sharing at least minOverlap of the
+	 *         given grams and holding a word of minLength to maxLength chars, best first, see {@link #rank}
+	 */
+	static int[] topCandidates(IndexReader reader, List<Term> grams, int minOverlap, int maxHits, WordTable words,
+			int minLength, int maxLength) throws IOException {
+		return topCandidates(reader, grams, minOverlap, maxHits, words, minLength, maxLength, null);
+	}
+
+	/**
+	 * The same as {@link #topCandidates(IndexReader, List, int, int, WordTable, int, int)}, also storing the rank of
+	 * every candidate into ranks (of at least maxHits entries) unless it is null, see {@link #rank}.
+	 */
+	static int[] topCandidates(IndexReader reader, List<Term> grams, int minOverlap, int maxHits, WordTable words,
+			int minLength, int maxLength, long[] ranks) throws IOException {
+		final Accumulator acc = ACCUMULATOR.get();
+		acc.reset(maxHits, words);
+		PostingsEnum postings = null;
+		for (LeafReaderContext ctx : reader.leaves()) {
+			final LeafReader leaf = ctx.reader();
+			acc.ensureCapacity(leaf.maxDoc());
+			String currentField = null;
+			TermsEnum te = null;
+			for (Term gram : grams) {
+				// grams are grouped by field, only get a new TermsEnum when the field changes
+				if (!gram.field().equals(currentField)) {
+					currentField = gram.field();
+					Terms terms = leaf.terms(currentField);
+					te = terms == null ? null : terms.iterator();
+				}
+				if (te == null || !te.seekExact(gram.bytes())) {
+					continue;
+				}
+				postings = te.postings(postings, PostingsEnum.NONE);
+				for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+					acc.increment(doc);
+				}
+			}
+			acc.collect(ctx.docBase, leaf.getLiveDocs(), minOverlap, minLength, maxLength);
+		}
+		return acc.result(ranks);
+	}
+
+	/*
+	 * The rank of a candidate, higher is better: the overlap in the upper half, the hash of the word reversed in the
+	 * lower half, equal ranks are ordered by the word. Only depends on the word, see the class comment.
+	 */
+	static long rank(int overlap, int hash) {
+		return ((long) overlap << 32) | (0xFFFFFFFFL - (hash & 0xFFFFFFFFL));
+	}
+
+	static int overlap(long rank) {
+		return (int) (rank >>> 32);
+	}
+
+	/**
+	 * The same as {@link #topCandidates(IndexReader, List, int, int, WordTable, int, int)} for a snapshot, the
+	 * result holds word ordinals of the snapshot.
+	 */
+	static int[] topCandidates(SpellSnapshot snapshot, List<Term> grams, int minOverlap, int maxHits, int minLength,
+			int maxLength) {
+		final Accumulator acc = ACCUMULATOR.get();
+		acc.reset(maxHits, snapshot);
+		acc.ensureCapacity(snapshot.size());
+		for (Term gram : grams) {
+			final int g = snapshot.findGram(gram.field(), gram.bytes());
+			if (g < 0) {
+				continue;
+			}
+			final int end = snapshot.postingsEnd(g);
+			for (int i = snapshot.postingsStart(g); i < end; i++) {
+				acc.increment(snapshot.posting(i));
+			}
+		}
+		acc.collect(0, null, minOverlap, minLength, maxLength);
+		return acc.result(null);
+	}
+
+	private static final class Accumulator {
+		private int[] counts = new int[0];
+		private int[] touched = new int[0];
+		private int touchedCount;
+
+		// min heap of the ranks, the root is the weakest candidate, with the docIds alongside
+		private long[] heap = new long[0];
+		private int[] heapDocs = new int[0];
+		private int heapSize;
+		private int maxHits;
+		private SpellWords words;
+
+		void reset(int maxHits, SpellWords words) {
+			this.maxHits = maxHits;
+			this.words = words;
+			heapSize = 0;
+			if (heap.length < maxHits) {
+				heap = new long[maxHits];
+				heapDocs = new int[maxHits];
+			}
+		}
+
+		void ensureCapacity(int maxDoc) {
+			if (counts.length < maxDoc) {
+				counts = new int[maxDoc];
+				touched = new int[maxDoc];
+			}
+			touchedCount = 0;
+		}
+
+		void increment(int doc) {
+			if (counts[doc]++ == 0) {
+				touched[touchedCount++] = doc;
+			}
+		}
+
+		void collect(int docBase, Bits liveDocs, int minOverlap, int minLength, int maxLength) {
+			for (int i = 0; i < touchedCount; i++) {
+				final int doc = touched[i];
+				final int count = counts[doc];
+				counts[doc] = 0;
+				if (count < minOverlap || (liveDocs != null && !liveDocs.get(doc))) {
+					continue;
+				}
+				// can't make it into a full heap, no need to hash the word
+				if (heapSize == maxHits && count < overlap(heap[0])) {
+					continue;
+				}
+				final int id = docBase + doc;
+				final int length = words.length(id);
+				if (length >= minLength && length <= maxLength) {
+					offer(rank(count, words.hash(id)), id);
+				}
+			}
+			touchedCount = 0;
+		}
+
+		/*
+		 * Whether candidate a ranks below candidate b, the words only need to be compared on equal ranks
+		 */
+		private boolean weaker(long rankA, int docA, long rankB, int docB) {
+			if (rankA != rankB) {
+				return rankA < rankB;
+			}
+			return words.word(docA).compareTo(words.word(docB)) > 0;
+		}
+
+		private void offer(long rank, int doc) {
+			if (maxHits <= 0) {
+				return;
+			}
+			if (heapSize < maxHits) {
+				int i = heapSize++;
+				while (i > 0) {
+					int parent = (i - 1) >>> 1;
+					if (!weaker(rank, doc, heap[parent], heapDocs[parent])) {
+						break;
+					}
+					heap[i] = heap[parent];
+					heapDocs[i] = heapDocs[parent];
+					i = parent;
+				}
+				heap[i] = rank;
+				heapDocs[i] = doc;
+			} else if (weaker(heap[0], heapDocs[0], rank, doc)) {
+				siftDown(rank, doc, heapSize);
+			}
+		}
+
+		private void siftDown(long rank, int doc, int size) {
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && weaker(heap[child + 1], heapDocs[child + 1], heap[child], heapDocs[child])) {
+					child++;
+				}
+				if (!weaker(heap[child], heapDocs[child], rank, doc)) {
+					break;
+				}
+				heap[i] = heap[child];
+				heapDocs[i] = heapDocs[child];
+				i = child;
+			}
+			heap[i] = rank;
+			heapDocs[i] = doc;
+		}
+
+		/*
+		 * ranks: receives the ranks of the result unless it is null
+		 */
+		int[] result(long[] ranks) {
+			final int[] docs = new int[heapSize];
+			// pop the weakest first, filling the result from the back
+			for (int n = heapSize; n > 0; n--) {
+				docs[n - 1] = heapDocs[0];
+				if (ranks != null) {
+					ranks[n - 1] = heap[0];
+				}
+				siftDown(heap[n - 1], heapDocs[n - 1], n - 1);
+			}
+			heapSize = 0;
+			words = null;
+			return docs;
+		}
+	}
+}
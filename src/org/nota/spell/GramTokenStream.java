@@ -0,0 +1,57 @@
+package org.nota.spell;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+/*
+ * Emits the grams of a word straight from a char[] window, without creating a String per gram.
+ * Either all grams of a given size are emitted (the gramX fields) or a single gram at a given offset
+ * (the startX and endX fields). The stream is reused for every word indexed by a thread.
+ * */
+final class GramTokenStream extends TokenStream {
+
+	private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+	private char[] text;
+	private int gramSize;
+	private int first;
+	private int last;
+	private int pos;
+
+	/*
+	 * All grams of gramSize in the first length chars of text
+	 */
+	void setGrams(char[] text, int length, int gramSize) {
+		this.text = text;
+		this.gramSize = gramSize;
+		this.first = 0;
+		this.last = length - gramSize;
+	}
+
+	/*
+	 * Only the gram of gramSize starting at offset
+	 */
+	void setGram(char[] text, int offset, int gramSize) {
+		this.text = text;
+		this.gramSize = gramSize;
+		this.first = offset;
+		this.last = offset;
+	}
+
+	@Override
+	public boolean incrementToken() {
+		if (pos > last) {
+			return false;
+		}
+		clearAttributes();
+		termAtt.copyBuffer(text, pos, gramSize);
+		pos++;
+		return true;
+	}
+
+	@Override
+	public void reset() throws java.io.IOException {
+		super.reset();
+		pos = first;
+	}
+}
@@ -0,0 +1,73 @@
+package org.nota.spell;
+
+import org.apache.lucene.util.Bits;
+
+/*
+ * Exact membership test for the words of a spell index, built once per searcher from its word table.
+ * An open addressing hash table of word ids, the words themselves stay in the word table, so a lookup is a hash of
+ * the query word plus usually a single equalsWord on the table. It never touches the Lucene index, which makes it
+ * cheap enough to run for every token before anything else, most tokens being spelled correctly.
+ * */
+final class KnownWords {
+
+	private final SpellWords words;
+	// id + 1 of the word in the slot, 0 for an empty slot
+	private final int[] slots;
+	private final int mask;
+
+	private KnownWords(SpellWords words, int[] slots) {
+		this.words = words;
+		this.slots = slots;
+		this.mask = slots.length - 1;
+	}
+
+	/*
+	 * A table of the live words with ids 0 to size - 1, deleted words and empty ids (length 0) are left out
+	 */
+	static KnownWords build(SpellWords words, int size, Bits liveDocs) {
+		int count = 0;
+		for (int id = 0; id < size; id++) {
+			if (words.length(id) > 0 && (liveDocs == null || liveDocs.get(id))) {
+				count++;
+			}
+		}
+		// load factor at most 0.5, probe sequences stay short
+		int capacity = Integer.highestOneBit(Math.max(2, count) * 2 - 1) << 1;
+		final int[] slots = new int[capacity];
+		final int mask = capacity - 1;
+		for (int id = 0; id < size; id++) {
+			if (words.length(id) == 0 || (liveDocs != null && !liveDocs.get(id))) {
+				continue;
+			}
+			int slot = mix(words.hash(id)) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+		return new KnownWords(words, slots);
+	}
+
+	boolean contains(String word) {
+		int slot = mix(word.hashCode()) & mask;
+		int entry;
+		while ((entry = slots[slot]) != 0) {
+			if (words.equalsWord(entry - 1, word)) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	long ramBytesUsed() {
+		return 16L + 4L * slots.length;
+	}
+
+	// String.hashCode has weak low bits for short words, which are the ones used as slot index
+	static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		return h ^ (h >>> 13);
+	}
+}
@@ -0,0 +1,94 @@
+package org.nota.spell;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A lock free latency histogram with log-linear buckets like HdrHistogram: every power of two range of nanoseconds is
+ * split into 32 buckets, so a percentile is off by at most about 3% no matter the magnitude. Recording is a few
+ * shifts and an atomic increment, reading a percentile walks the buckets. Counts are never reset, the values cover
+ * the lifetime of the spell checker.
+ * */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// values below 2 * SUB_BUCKETS get a bucket each, then SUB_BUCKETS buckets per power of two up to 2^63
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucket(nanos));
+		count.increment();
+		totalNanos.add(nanos);
+	}
+
+	static int bucket(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	// the highest value that falls into the bucket
+	static long highestValue(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		final int shift = bucket / SUB_BUCKETS - 1;
+		final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getMeanMicros() {
+		final long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100, e.g. 99.9
+	 * @return the latency in nanoseconds that the given percentage of the recorded values doesn't exceed, 0 if
+	 *         nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		final long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= target) {
+				return highestValue(i);
+			}
+		}
+		return highestValue(BUCKETS - 1);
+	}
+
+	public long getMicrosAtPercentile(double percentile) {
+		return TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(percentile));
+	}
+
+	public long getMaxMicros() {
+		return getMicrosAtPercentile(100);
+	}
+}
@@ -1,12 +1,18 @@
 package org.nota.spell;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
@@ -20,6 +26,32 @@ import org.apache.lucene.search.TermQuery;
  * */
 public class NGram {
 	private static final String F_WORD = "word";
+	// length of the word in chars, indexed as a point such that candidates can be restricted to a length window
+	static final String F_LENGTH = "length";
+	// frequency of the word in the source of the dictionary (the dictionary weight)
+	static final String F_FREQ = "freq";
+	// largest gram size used by getMax
+	static final int MAX_GRAM = 4;
+	// bump whenever the documents created for a word change, such that spell indexes built before are rebuilt
+	public static final int SCHEME_VERSION = 1;
+
+	// spellchecker does not use positional queries, but we want freqs
+	// for scoring these multivalued n-gram fields.
+	private static final FieldType GRAM_TYPE = new FieldType(StringField.TYPE_NOT_STORED);
+	// the same terms as GRAM_TYPE and StringField.TYPE_NOT_STORED, produced by a GramTokenStream
+	private static final FieldType GRAM_STREAM_TYPE = new FieldType(StringField.TYPE_NOT_STORED);
+	private static final FieldType START_END_STREAM_TYPE = new FieldType(StringField.TYPE_NOT_STORED);
+	static {
+		GRAM_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+		GRAM_TYPE.freeze();
+		GRAM_STREAM_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+		GRAM_STREAM_TYPE.setTokenized(true);
+		GRAM_STREAM_TYPE.freeze();
+		START_END_STREAM_TYPE.setTokenized(true);
+		START_END_STREAM_TYPE.freeze();
+	}
+
+	private static final ThreadLocal<ReusableDocument> REUSABLE_DOCUMENT = ThreadLocal.withInitial(ReusableDocument::new);
 
 	private static void add(BooleanQuery.Builder q, String name, String value) {
 		q.add(new BooleanClause(new TermQuery(new Term(name, value)), BooleanClause.Occur.SHOULD));
@@ -50,16 +82,119 @@ public class NGram {
 
 	}
 
+	/**
+	 * The distinct grams of a word, in the same fields as used by {@link #buildNgramQuery(String)}.
+	 * 
+	 * @param word
+	 *            the word to parse
+	 * @return one term per distinct gram, ordered by gram size and position of the first occurrence
+	 */
+	public static List<Term> distinctGramTerms(String word) {
+		final int lengthWord = word.length();
+		List<Term> terms = new ArrayList<>();
+		for (int ng = getMin(lengthWord); ng <= getMax(lengthWord); ng++) {
+			String key = "gram" + ng;
+			Set<String> seen = new LinkedHashSet<>();
+			for (String gram : formGrams(word, ng)) {
+				if (seen.add(gram)) {
+					terms.add(new Term(key, gram));
+				}
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * The number of grams of a word, duplicates included, which is the number of clauses of
+	 * {@link #buildNgramQuery(String)}.
+	 */
+	public static int gramCount(String word) {
+		final int lengthWord = word.length();
+		int count = 0;
+		for (int ng = getMin(lengthWord); ng <= getMax(lengthWord); ng++) {
+			count += Math.max(0, lengthWord - ng + 1);
+		}
+		return count;
+	}
+
 	public static Document createDocument(String text) {
+		return createDocument(text, 0);
+	}
+
+	public static Document createDocument(String text, long freq) {
 		Document doc = new Document();
 		// the word field is never queried on... it's indexed so it can be quickly
 		// checked for rebuild (and stored for retrieval). Doesn't need norms or TF/pos
 		Field f = new StringField(F_WORD, text, Field.Store.YES);
 		doc.add(f); // orig term
+		doc.add(new IntPoint(F_LENGTH, text.length()));
+		doc.add(new NumericDocValuesField(F_FREQ, freq));
 		addGram(text, doc, getMin(text.length()), getMax(text.length()));
 		return doc;
 	}
 
+	/**
+	 * The fields of the document for a word, exactly the same index terms as {@link #createDocument(String, long)}
+	 * but built from per-thread field instances: grams are produced by a reusable {@link GramTokenStream} over a
+	 * char[] copy of the word, one field per gram size, and no String is created per gram. The returned fields are
+	 * only valid until the next call from the same thread, so they must be added to the IndexWriter right away.
+	 */
+	public static Iterable<IndexableField> reusableDocument(String text, long freq) {
+		return REUSABLE_DOCUMENT.get().set(text, freq);
+	}
+
+	private static final class ReusableDocument {
+		private final List<IndexableField> fields = new ArrayList<>();
+		private final Field word = new StringField(F_WORD, "", Field.Store.YES);
+		private final IntPoint length = new IntPoint(F_LENGTH, 0);
+		private final NumericDocValuesField freq = new NumericDocValuesField(F_FREQ, 0);
+		private final GramTokenStream[] gramStreams = new GramTokenStream[MAX_GRAM + 1];
+		private final GramTokenStream[] startStreams = new GramTokenStream[MAX_GRAM + 1];
+		private final GramTokenStream[] endStreams = new GramTokenStream[MAX_GRAM + 1];
+		private final Field[] gramFields = new Field[MAX_GRAM + 1];
+		private final Field[] startFields = new Field[MAX_GRAM + 1];
+		private final Field[] endFields = new Field[MAX_GRAM + 1];
+		private char[] chars = new char[32];
+
+		ReusableDocument() {
+			for (int ng = 1; ng <= MAX_GRAM; ng++) {
+				gramStreams[ng] = new GramTokenStream();
+				startStreams[ng] = new GramTokenStream();
+				endStreams[ng] = new GramTokenStream();
+				gramFields[ng] = new Field("gram" + ng, gramStreams[ng], GRAM_STREAM_TYPE);
+				startFields[ng] = new Field("start" + ng, startStreams[ng], START_END_STREAM_TYPE);
+				endFields[ng] = new Field("end" + ng, endStreams[ng], START_END_STREAM_TYPE);
+			}
+		}
+
+		List<IndexableField> set(String text, long freq) {
+			final int len = text.length();
+			if (chars.length < len) {
+				chars = new char[Math.max(len, 2 * chars.length)];
+			}
+			text.getChars(0, len, chars, 0);
+			fields.clear();
+			word.setStringValue(text);
+			fields.add(word);
+			length.setIntValue(len);
+			fields.add(length);
+			this.freq.setLongValue(freq);
+			fields.add(this.freq);
+			for (int ng = getMin(len); ng <= getMax(len); ng++) {
+				if (len - ng + 1 <= 0) {
+					continue; // no gram of this size, so no start/end either
+				}
+				gramStreams[ng].setGrams(chars, len, ng);
+				fields.add(gramFields[ng]);
+				startStreams[ng].setGram(chars, 0, ng);
+				fields.add(startFields[ng]);
+				endStreams[ng].setGram(chars, len - ng, ng);
+				fields.add(endFields[ng]);
+			}
+			return fields;
+		}
+	}
+
 	private static void addGram(String text, Document doc, int ng1, int ng2) {
 		int len = text.length();
 		for (int ng = ng1; ng <= ng2; ng++) {
@@ -67,11 +202,7 @@ public class NGram {
 			String end = null;
 			for (int i = 0; i < len - ng + 1; i++) {
 				String gram = text.substring(i, i + ng);
-				FieldType ft = new FieldType(StringField.TYPE_NOT_STORED);
-				ft.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
-				Field ngramField = new Field(key, gram, ft);
-				// spellchecker does not use positional queries, but we want freqs
-				// for scoring these multivalued n-gram fields.
+				Field ngramField = new Field(key, gram, GRAM_TYPE);
 				doc.add(ngramField);
 				if (i == 0) {
 					// only one term possible in the startXXField, TF/pos and norms aren't needed.
@@ -107,7 +238,7 @@ public class NGram {
 		return res;
 	}
 
-	private static int getMin(int l) {
+	static int getMin(int l) {
 		if (l > 5) {
 			return 3;
 		}
@@ -119,7 +250,7 @@ public class NGram {
 		return 1;
 	}
 
-	private static int getMax(int l) {
+	static int getMax(int l) {
 		if (l > 5) {
 			return 4;
 		}
@@ -3,33 +3,126 @@ package org.nota.spell;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.index.LogDocMergePolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.search.spell.HighFrequencyDictionary;
 
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /*Direct implementation of the Lucene IndexBasedSpellChecker class*/
 public class NgramsBasedSpellChecker extends AbstractNotaSpellChecker {
 
+	private static final Logger LOG = LoggerFactory.getLogger(NgramsBasedSpellChecker.class);
+
 	public static final String THRESHOLD_TOKEN_FREQUENCY = "thresholdTokenFrequency";
+	public static final String REFRESH_FREQUENCIES_ON_RELOAD = "refreshFrequenciesOnReload";
+	public static final String BUILD_THREADS = "buildThreads";
+	public static final String RAM_BUFFER_SIZE_MB = "ramBufferSizeMB";
+	public static final String MERGE_POLICY = "mergePolicy";
+	public static final String FORCE_MERGE = "forceMerge";
+	public static final String INCREMENTAL_BUILD = "incrementalBuild";
+	public static final String SKIP_UNCHANGED_BUILD = "skipUnchangedBuild";
+
+	// commit user data of the spell index describing what it was built from
+	static final String SOURCE_KEY = "nota.source";
+	static final String SOURCE_VERSION_KEY = "nota.sourceVersion";
+	static final String FIELD_KEY = "nota.field";
+	static final String THRESHOLD_KEY = "nota.threshold";
+	static final String SCHEME_KEY = "nota.ngramScheme";
+
+	// how long closing the core waits for a background build before and after cancelling it
+	private static final long BUILD_SHUTDOWN_SECONDS = 30;
 
 	protected float threshold;
+	protected boolean refreshFrequenciesOnReload;
+	protected int buildThreads;
+	protected double ramBufferSizeMB;
+	protected String mergePolicy;
+	protected boolean forceMerge;
+	protected boolean incrementalBuild;
+	protected boolean skipUnchangedBuild;
+	protected SolrCore core;
+	protected volatile BuildStats lastBuildStats;
 	protected IndexReader reader;
+	// runs the builds with backgroundBuild, one at a time
+	protected ExecutorService buildExecutor;
+	private final AtomicBoolean building = new AtomicBoolean();
 
 	@Override
 	public String init(NamedList config, SolrCore core) {
 		super.init(config, core);
 		threshold = config.get(THRESHOLD_TOKEN_FREQUENCY) == null ? 0.0f
 				: (Float) config.get(THRESHOLD_TOKEN_FREQUENCY);
+		refreshFrequenciesOnReload = getBoolean(config, REFRESH_FREQUENCIES_ON_RELOAD, false);
+		buildThreads = getInt(config, BUILD_THREADS, 1);
+		ramBufferSizeMB = getDouble(config, RAM_BUFFER_SIZE_MB, IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+		mergePolicy = (String) config.get(MERGE_POLICY);
+		forceMerge = getBoolean(config, FORCE_MERGE, false);
+		incrementalBuild = getBoolean(config, INCREMENTAL_BUILD, false);
+		skipUnchangedBuild = getBoolean(config, SKIP_UNCHANGED_BUILD, false);
+		this.core = core;
+		if (shardedSpellChecker != null && (incrementalBuild || skipUnchangedBuild || refreshFrequenciesOnReload)) {
+			throw new RuntimeException("incrementalBuild, skipUnchangedBuild and refreshFrequenciesOnReload "
+					+ "can't be combined with shards for dictionary: " + name);
+		}
+		if (backgroundBuild) {
+			buildExecutor = Executors
+					.newSingleThreadExecutor(SpellExecutors.daemonThreadFactory("spellcheck-build-" + name));
+		}
 		initSourceReader();
 		return name;
 	}
 
+	/*
+	 * A background build still writes into the next generation and installs it on the spell checker, it has to be
+	 * done before the spell index is closed. It gets some time to finish, then it is interrupted, which makes it
+	 * fail and delete its generation.
+	 */
+	@Override
+	protected void shutdown() {
+		if (buildExecutor != null) {
+			buildExecutor.shutdown();
+			try {
+				if (!buildExecutor.awaitTermination(BUILD_SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+					LOG.warn("Cancelling the background build of spell checker index {}", name);
+					buildExecutor.shutdownNow();
+					if (!buildExecutor.awaitTermination(BUILD_SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+						LOG.warn("The background build of spell checker index {} did not stop", name);
+					}
+				}
+			} catch (InterruptedException e) {
+				buildExecutor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (sourceLocation != null && reader != null) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				LOG.warn("Could not close the source of spell checker index {}", name, e);
+			}
+		}
+		super.shutdown();
+	}
+
 	private void initSourceReader() {
 		if (sourceLocation != null) {
 			try {
@@ -51,18 +144,177 @@ public class NgramsBasedSpellChecker extends AbstractNotaSpellChecker {
 			// Load from Lucene index at given sourceLocation
 			reader = this.reader;
 		}
+		if (!backgroundBuild) {
+			buildIndex(reader);
+			return;
+		}
+
+		if (!building.compareAndSet(false, true)) {
+			LOG.warn("A build of spell checker index {} is still running, ignoring this one", name);
+			return;
+		}
+		// the searcher may be closed before the build is done
+		reader.incRef();
+		final IndexReader source = reader;
+		try {
+			buildExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						buildIndex(source);
+					} catch (Throwable t) {
+						LOG.error("Background build of spell checker index " + name + " failed", t);
+					} finally {
+						building.set(false);
+						try {
+							source.decRef();
+						} catch (IOException e) {
+							LOG.warn("Could not release the source of spell checker index {}", name, e);
+						}
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			building.set(false);
+			source.decRef();
+			throw e;
+		}
+	}
 
+	/*
+	 * Builds the spell index from the source reader, in the calling thread
+	 */
+	protected void buildIndex(IndexReader reader) throws IOException {
 		// Create the dictionary
 		dictionary = new HighFrequencyDictionary(reader, field, threshold);
-		// TODO: maybe whether or not to clear the index should be configurable?
-		// an incremental update is faster (just adds new terms), but if you 'expunged'
-		// old terms I think they might hang around.
-		spellChecker.clearIndex();
-		// TODO: you should be able to specify the IWC params?
+		if (shardedSpellChecker != null) {
+			shardedSpellChecker.clearIndex();
+			lastBuildStats = shardedSpellChecker.indexDictionary(dictionary, this::newIndexWriterConfig, forceMerge,
+					buildThreads);
+			LOG.info("Built spell checker index {} in {} shards: {}", name, shardedSpellChecker.getShardCount(),
+					lastBuildStats);
+			return;
+		}
+		boolean incremental = incrementalBuild;
+		final Map<String, String> signature = skipUnchangedBuild ? buildSignature(reader) : null;
+		if (signature != null) {
+			final Map<String, String> previous = spellChecker.getCommitUserData();
+			if (signature.equals(previous)) {
+				LOG.info("Spell checker index {} is up to date with its source, skipping the build", name);
+				if (snapshotFile != null && !Files.exists(snapshotFile)) {
+					updateSnapshot();
+				}
+				return;
+			}
+			// only the source changed, bring the spell index up to date rather than rebuilding it
+			incremental |= sameSettings(signature, previous);
+		}
+		if (incremental) {
+			// only adds new terms and removes the ones that are gone or fell below the threshold
+			lastBuildStats = spellChecker.updateDictionary(dictionary, newIndexWriterConfig(), forceMerge,
+					buildThreads);
+		} else if (backgroundBuild) {
+			lastBuildStats = rebuildNextGeneration();
+		} else {
+			spellChecker.clearIndex();
+			lastBuildStats = spellChecker.indexDictionary(dictionary, newIndexWriterConfig(), forceMerge,
+					buildThreads);
+		}
+		LOG.info("Built spell checker index {}: {}", name, lastBuildStats);
+		updateSnapshot();
+		if (signature != null) {
+			// recorded last, a build that doesn't complete is never taken for up to date
+			spellChecker.setCommitUserData(signature);
+		}
+	}
+
+	/*
+	 * Builds the next generation of the spell index next to the current one, which keeps serving until the new
+	 * one is warmed up and swapped in. The previous generation is deleted afterwards.
+	 */
+	private BuildStats rebuildNextGeneration() throws IOException {
+		final int next = indexGeneration + 1;
+		final Directory previous = index;
+		final Directory target = openIndexDirectory(next);
+		final BuildStats stats;
+		try {
+			stats = spellChecker.rebuildInto(target, dictionary, newIndexWriterConfig(), forceMerge, buildThreads,
+					warmupWords);
+		} catch (IOException | RuntimeException e) {
+			target.close();
+			deleteGeneration(next);
+			throw e;
+		}
+		index = target;
+		indexGeneration = next;
+		// requests still running on the previous generation hold on to their open files
+		previous.close();
+		try {
+			deleteGeneration(next - 1);
+		} catch (IOException e) {
+			LOG.warn("Could not delete the previous generation of spell checker index {}, "
+					+ "it is deleted on the next start", name, e);
+		}
+		return stats;
+	}
+
+	/*
+	 * What the spell index is built from: the source index and its version, the field, the threshold and the
+	 * n-gram scheme. Null if the version of the source can't be determined, such that it is always built.
+	 */
+	protected Map<String, String> buildSignature(IndexReader reader) {
+		if (!(reader instanceof DirectoryReader)) {
+			return null;
+		}
+		Map<String, String> signature = new HashMap<>();
+		signature.put(SOURCE_KEY, sourceLocation == null ? core.getIndexDir() : sourceLocation);
+		signature.put(SOURCE_VERSION_KEY, Long.toString(((DirectoryReader) reader).getVersion()));
+		signature.put(FIELD_KEY, String.valueOf(field));
+		signature.put(THRESHOLD_KEY, Float.toString(threshold));
+		signature.put(SCHEME_KEY, Integer.toString(NGram.SCHEME_VERSION));
+		return signature;
+	}
+
+	/*
+	 * true if both signatures only differ in the version of the source
+	 */
+	private static boolean sameSettings(Map<String, String> signature, Map<String, String> previous) {
+		if (!previous.containsKey(SOURCE_VERSION_KEY)) {
+			return false;
+		}
+		Map<String, String> a = new HashMap<>(signature);
+		Map<String, String> b = new HashMap<>(previous);
+		a.remove(SOURCE_VERSION_KEY);
+		b.remove(SOURCE_VERSION_KEY);
+		return a.equals(b);
+	}
+
+	/*
+	 * The IndexWriterConfig used to build the spell index, based on the buildThreads, ramBufferSizeMB and
+	 * mergePolicy settings
+	 */
+	protected IndexWriterConfig newIndexWriterConfig() {
 		// TODO: if we enable this, codec gets angry since field won't exist in the
 		// schema
 		// config.setCodec(core.getCodec());
-		spellChecker.indexDictionary(dictionary, new IndexWriterConfig(null), false);
+		IndexWriterConfig config = new IndexWriterConfig(null);
+		config.setRAMBufferSizeMB(ramBufferSizeMB);
+		if (mergePolicy != null) {
+			config.setMergePolicy(newMergePolicy(mergePolicy));
+		}
+		return config;
+	}
+
+	private MergePolicy newMergePolicy(String mergePolicy) {
+		if ("tiered".equalsIgnoreCase(mergePolicy)) {
+			return new TieredMergePolicy();
+		} else if ("logByteSize".equalsIgnoreCase(mergePolicy)) {
+			return new LogByteSizeMergePolicy();
+		} else if ("logDoc".equalsIgnoreCase(mergePolicy)) {
+			return new LogDocMergePolicy();
+		}
+		// must be a FQCN
+		return core.getResourceLoader().newInstance(mergePolicy, MergePolicy.class);
 	}
 
 	@Override
@@ -78,12 +330,40 @@ public class NgramsBasedSpellChecker extends AbstractNotaSpellChecker {
 
 	@Override
 	public void reload(SolrCore core, SolrIndexSearcher searcher) throws IOException {
+		if (building.get()) {
+			// the background build installs its own spell index, don't bring back the one it replaces
+			initSourceReader();
+			return;
+		}
 		super.reload(core, searcher);
 		// reload the source
 		initSourceReader();
+		if (refreshFrequenciesOnReload) {
+			IndexReader source = sourceLocation == null ? searcher.getIndexReader() : this.reader;
+			if (source != null) {
+				// an empty spell index (e.g. in memory after a restart) must not replace the snapshot
+				if (spellChecker.refreshFrequencies(source, field) > 0) {
+					updateSnapshot();
+				}
+			}
+		}
 	}
 
 	public float getThreshold() {
 		return threshold;
 	}
+
+	/*
+	 * @return the statistics of the last build, null if the index hasn't been built since startup
+	 */
+	public BuildStats getLastBuildStats() {
+		return lastBuildStats;
+	}
+
+	/*
+	 * @return true while a background build is running
+	 */
+	public boolean isBuilding() {
+		return building.get();
+	}
 }
\ No newline at end of file
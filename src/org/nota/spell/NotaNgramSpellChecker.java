@@ -1,33 +1,56 @@
 package org.nota.spell;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.lucene.document.Document;
+import org.apache.lucene.document.IntPoint;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.spell.HighFrequencyDictionary;
 import org.apache.lucene.search.spell.LevensteinDistance;
 import org.apache.lucene.search.spell.StringDistance;
 import org.apache.lucene.search.spell.SuggestMode;
 import org.apache.lucene.search.spell.SuggestWord;
 import org.apache.lucene.search.spell.SuggestWordQueue;
+import org.apache.lucene.search.suggest.InputIterator;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.BytesRefIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
 
 /*A modified version of the STD lucene/search/spell/SpellChecker.java object
  * A class NGram has been created in order to separate the code. Small modifications have been applied
@@ -42,18 +65,56 @@ import org.apache.lucene.util.BytesRefIterator;
 public class NotaNgramSpellChecker implements java.io.Closeable {
 
 	public static final float DEFAULT_ACCURACY = 0.5f;
+	public static final int DEFAULT_MAX_HITS = 1000;
+	public static final int DEFAULT_DELETE_DISTANCE = 1;
+	public static final int DEFAULT_DELETE_PREFIX_LENGTH = 7;
+	public static final int DEFAULT_AUTOMATON_DISTANCE = 2;
+	/**
+	 * Words per task of suggestSimilarBatch, enough to make the task overhead negligible
+	 */
+	public static final int BATCH_CHUNK_SIZE = 16;
 	public static final String F_WORD = "word";
 
 	Directory spellIndex;
 
-	private IndexSearcher searcher;
+	// read without locking by obtainSearcher, only replaced under searcherLock
+	private volatile SpellSearcher searcher;
 
+	// serializes the replacement of the searcher, readers never take it
 	private final Object searcherLock = new Object();
 	private final Object modifyCurrentIndexLock = new Object();
+	// serializes rebuilds into another directory, they don't need modifyCurrentIndexLock until the swap
+	private final Object rebuildLock = new Object();
 	private volatile boolean closed = false;
 	private float accuracy = DEFAULT_ACCURACY;
 	private StringDistance sd;
+	// bounded version of sd if there is one, allows the candidate loop to stop computing hopeless distances
+	private BoundedStringDistance boundedSd;
 	private Comparator<SuggestWord> comparator;
+	// incremented for every searcher that is installed, cached suggestions are only valid for one generation
+	private long generation;
+	private volatile SuggestionCache suggestionCache;
+	private CandidateStrategy candidateStrategy = CandidateStrategy.NGRAM_QUERY;
+	private volatile boolean useSpellIndexFrequencies = false;
+	private volatile boolean knownWordFilter = false;
+	/*
+	 * This peace of code was made to fasten the search, although this truly
+	 * limits the scope of the search results. Originally the value was set to 10
+	 * which is way too low
+	 */
+	private volatile int maxHits = DEFAULT_MAX_HITS;
+	// candidates per gram of the word, 0 to always retrieve maxHits
+	private volatile int hitsPerGram = 0;
+	// stop after this many candidates in a row that don't make it into the full queue, 0 to look at all of them
+	private volatile int earlyTerminationHits = 0;
+	// settings of the DeleteNeighbourhood built with every searcher for CandidateStrategy.DELETES
+	private volatile int deleteDistance = DEFAULT_DELETE_DISTANCE;
+	private volatile int deletePrefixLength = DEFAULT_DELETE_PREFIX_LENGTH;
+	// settings of the Levenshtein automaton for CandidateStrategy.AUTOMATON
+	private volatile int automatonDistance = DEFAULT_AUTOMATON_DISTANCE;
+	private volatile int automatonPrefixLength = 0;
+	// null unless the hot paths are instrumented, see setMetrics
+	private volatile SpellMetrics metrics;
 
 	public NotaNgramSpellChecker(Directory spellIndex, StringDistance sd) throws IOException {
 		this(spellIndex, sd, SuggestWordQueue.DEFAULT_COMPARATOR);
@@ -86,6 +147,7 @@ public class NotaNgramSpellChecker implements java.io.Closeable {
 
 	public void setComparator(Comparator<SuggestWord> comparator) {
 		this.comparator = comparator;
+		clearSuggestionCache();
 	}
 
 	public Comparator<SuggestWord> getComparator() {
@@ -94,6 +156,8 @@ public class NotaNgramSpellChecker implements java.io.Closeable {
 
 	public void setStringDistance(StringDistance sd) {
 		this.sd = sd;
+		this.boundedSd = BoundedLevensteinDistance.bounded(sd);
+		clearSuggestionCache();
 	}
 
 	public StringDistance getStringDistance() {
@@ -108,6 +172,297 @@ public class NotaNgramSpellChecker implements java.io.Closeable {
 		return accuracy;
 	}
 
+	public void setCandidateStrategy(CandidateStrategy candidateStrategy) {
+		this.candidateStrategy = candidateStrategy;
+		buildDeletes();
+		clearSuggestionCache();
+	}
+
+	public CandidateStrategy getCandidateStrategy() {
+		return candidateStrategy;
+	}
+
+	/**
+	 * If enabled, the frequencies used when a user index is given (filtering of candidates,
+	 * SUGGEST_MORE_POPULAR and {@link #frequency(String)}) are read from the spell index, where they are stored at
+	 * build time, instead of calling docFreq on the user index. Only has an effect if the spell index was built
+	 * with frequencies, otherwise docFreq is still used. Words that are not in the spell index have frequency 0.
+	 */
+	public void setUseSpellIndexFrequencies(boolean useSpellIndexFrequencies) {
+		this.useSpellIndexFrequencies = useSpellIndexFrequencies;
+		clearSuggestionCache();
+	}
+
+	public boolean isUseSpellIndexFrequencies() {
+		return useSpellIndexFrequencies;
+	}
+
+	/**
+	 * The maximum number of candidates retrieved from the spell index per suggestSimilar call, each of them may
+	 * cost a distance computation. Defaults to {@link #DEFAULT_MAX_HITS}.
+	 */
+	public void setMaxHits(int maxHits) {
+		if (maxHits < 1) {
+			throw new IllegalArgumentException("maxHits must be at least 1: " + maxHits);
+		}
+		this.maxHits = maxHits;
+		clearSuggestionCache();
+	}
+
+	public int getMaxHits() {
+		return maxHits;
+	}
+
+	/**
+	 * Makes the number of candidates adaptive: hitsPerGram times the number of grams of the word (see
+	 * {@link NGram#gramCount(String)}, which grows with the word length), at least numSug and at most maxHits.
+	 * 0 (the default) always retrieves maxHits candidates.
+	 */
+	public void setHitsPerGram(int hitsPerGram) {
+		this.hitsPerGram = Math.max(0, hitsPerGram);
+		clearSuggestionCache();
+	}
+
+	public int getHitsPerGram() {
+		return hitsPerGram;
+	}
+
+	/**
+	 * Candidates are looked at best gram match first, so once the queue of suggestions is full a long run of
+	 * candidates that can't beat its worst entry means the rest most likely won't either. With earlyTerminationHits
+	 * set suggestSimilar stops after that many such candidates in a row. 0 (the default) looks at all candidates.
+	 */
+	public void setEarlyTerminationHits(int earlyTerminationHits) {
+		this.earlyTerminationHits = Math.max(0, earlyTerminationHits);
+		clearSuggestionCache();
+	}
+
+	public int getEarlyTerminationHits() {
+		return earlyTerminationHits;
+	}
+
+	/**
+	 * The maximum number of deletes (edits) between a word and its candidates for {@link CandidateStrategy#DELETES},
+	 * defaults to {@link #DEFAULT_DELETE_DISTANCE}. The memory needed grows quickly with the distance: every word is
+	 * stored under up to (prefix length choose distance) variants per distance.
+	 */
+	public void setDeleteDistance(int deleteDistance) {
+		if (deleteDistance < 1) {
+			throw new IllegalArgumentException("deleteDistance must be at least 1: " + deleteDistance);
+		}
+		this.deleteDistance = deleteDistance;
+		buildDeletes();
+		clearSuggestionCache();
+	}
+
+	public int getDeleteDistance() {
+		return deleteDistance;
+	}
+
+	/**
+	 * The number of leading chars of a word that are used for {@link CandidateStrategy#DELETES}, defaults to
+	 * {@link #DEFAULT_DELETE_PREFIX_LENGTH}. Longer prefixes return fewer candidates but need more memory.
+	 */
+	public void setDeletePrefixLength(int deletePrefixLength) {
+		if (deletePrefixLength < 1) {
+			throw new IllegalArgumentException("deletePrefixLength must be at least 1: " + deletePrefixLength);
+		}
+		this.deletePrefixLength = deletePrefixLength;
+		buildDeletes();
+		clearSuggestionCache();
+	}
+
+	public int getDeletePrefixLength() {
+		return deletePrefixLength;
+	}
+
+	/**
+	 * The maximum number of edits of the Levenshtein automaton for {@link CandidateStrategy#AUTOMATON}, 1 or 2
+	 * (the most Lucene supports), defaults to {@link #DEFAULT_AUTOMATON_DISTANCE}.
+	 */
+	public void setAutomatonDistance(int automatonDistance) {
+		if (automatonDistance < 1 || automatonDistance > LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE) {
+			throw new IllegalArgumentException("automatonDistance must be 1 or 2: " + automatonDistance);
+		}
+		this.automatonDistance = automatonDistance;
+		clearSuggestionCache();
+	}
+
+	public int getAutomatonDistance() {
+		return automatonDistance;
+	}
+
+	/**
+	 * The number of leading chars a candidate must share with the word for {@link CandidateStrategy#AUTOMATON},
+	 * defaults to 0. Every char of prefix makes the automaton cheaper, typos in the prefix are no longer found.
+	 */
+	public void setAutomatonPrefixLength(int automatonPrefixLength) {
+		this.automatonPrefixLength = Math.max(0, automatonPrefixLength);
+		clearSuggestionCache();
+	}
+
+	public int getAutomatonPrefixLength() {
+		return automatonPrefixLength;
+	}
+
+	/**
+	 * Records counters and latencies of suggestSimilar, indexDictionary and searcher swaps into the given metrics,
+	 * null (the default) to record nothing. Several spell checkers may share one instance.
+	 */
+	public void setMetrics(SpellMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public SpellMetrics getMetrics() {
+		return metrics;
+	}
+
+	/*
+	 * (Re)builds the delete variants of the current searcher if CandidateStrategy.DELETES is used and the searcher
+	 * has none with the current settings, a searcher installed in the meantime builds its own
+	 */
+	private void buildDeletes() {
+		final SpellSearcher current = searcher;
+		if (candidateStrategy != CandidateStrategy.DELETES || current == null) {
+			return;
+		}
+		final DeleteNeighbourhood deletes = current.deletes;
+		if (deletes == null || deletes.getMaxEdits() != deleteDistance
+				|| deletes.getPrefixLength() != deletePrefixLength) {
+			current.deletes = newDeletes(current.words, current.reader(), current.snapshot);
+		}
+	}
+
+	private DeleteNeighbourhood newDeletes(WordTable words, IndexReader reader, SpellSnapshot snapshot) {
+		if (snapshot != null) {
+			// the candidates are ordinals of the snapshot
+			return DeleteNeighbourhood.build(snapshot, snapshot.size(), null, deleteDistance, deletePrefixLength);
+		}
+		return DeleteNeighbourhood.build(words, words.size(), MultiFields.getLiveDocs(reader), deleteDistance,
+				deletePrefixLength);
+	}
+
+	/**
+	 * If enabled, an in-memory hash table of the words in the spell index is built with every searcher, see
+	 * {@link #isKnownWord(String)}. Under SUGGEST_WHEN_NOT_IN_INDEX suggestSimilar then returns a word of the spell
+	 * index right away, without a docFreq on the user index. Words are only in the spell index if they were in the
+	 * user index at build time.
+	 */
+	public void setKnownWordFilter(boolean knownWordFilter) {
+		this.knownWordFilter = knownWordFilter;
+		final SpellSearcher current = searcher;
+		if (knownWordFilter && current != null && current.knownWords == null) {
+			// a searcher installed in the meantime builds its own
+			current.knownWords = KnownWords.build(current.words, current.words.size(),
+					MultiFields.getLiveDocs(current.reader()));
+		}
+	}
+
+	public boolean isKnownWordFilter() {
+		return knownWordFilter;
+	}
+
+	/**
+	 * True if the word is in the spell index (or the snapshot), without acquiring the searcher. Always false if
+	 * the known word filter is disabled.
+	 */
+	public boolean isKnownWord(String word) {
+		ensureOpen();
+		return isKnownWord(searcher, word);
+	}
+
+	private boolean isKnownWord(SpellSearcher current, String word) {
+		if (!knownWordFilter || current == null) {
+			return false;
+		}
+		if (current.snapshot != null) {
+			// the snapshot is sorted, a binary search on the mapped words is cheap enough
+			return current.snapshot.ordinal(word) >= 0;
+		}
+		final KnownWords knownWords = current.knownWords;
+		return knownWords != null && knownWords.contains(word);
+	}
+
+	/**
+	 * Serves suggestions, {@link #exist(String)} and {@link #frequency(String)} from the given snapshot instead of
+	 * the spell index, null goes back to the spell index. Building and updating still work on the spell index, use
+	 * {@link #writeSnapshot(Path)} and install the new snapshot afterwards.
+	 */
+	public void setSnapshot(SpellSnapshot snapshot) {
+		synchronized (searcherLock) {
+			ensureOpen();
+			// the snapshot travels with the searcher, a request sees either the old or the new words
+			final SpellSearcher previous = searcher;
+			previous.reader().incRef();
+			searcher = new SpellSearcher(previous.searcher, previous.words, nextGeneration(), previous.lengthIndexed,
+					snapshot);
+			searcher.knownWords = previous.knownWords;
+			if (candidateStrategy == CandidateStrategy.DELETES) {
+				searcher.deletes = newDeletes(previous.words, previous.reader(), snapshot);
+			}
+			try {
+				previous.reader().decRef();
+			} catch (IOException e) {
+				// cannot happen, the new searcher still holds a reference
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/*
+	 * @return the snapshot suggestions are served from, null if they come from the spell index
+	 */
+	public SpellSnapshot getSnapshot() {
+		final SpellSearcher current = searcher;
+		return current == null ? null : current.snapshot;
+	}
+
+	/**
+	 * Writes the current content of the spell index to a snapshot file, see {@link SpellSnapshot}.
+	 */
+	public void writeSnapshot(Path file) throws IOException {
+		final SpellSearcher spellSearcher = obtainSearcher();
+		try {
+			SpellSnapshot.write(spellSearcher.reader(), spellSearcher.words, file);
+		} finally {
+			releaseSearcher(spellSearcher);
+		}
+	}
+
+	/**
+	 * Enables caching of suggestSimilar results for at most size distinct requests, a size of 0 or lower disables
+	 * the cache. Cached entries are dropped whenever a new searcher is installed on the spell index or a setting
+	 * that changes suggestions (distance, comparator, candidate retrieval) is set.
+	 */
+	public void setSuggestionCacheSize(int size) {
+		synchronized (searcherLock) {
+			if (size <= 0) {
+				suggestionCache = null;
+			} else {
+				SuggestionCache cache = new SuggestionCache(size);
+				cache.invalidate(generation);
+				suggestionCache = cache;
+			}
+		}
+	}
+
+	/*
+	 * Called by every setter that changes the suggestions, after the change
+	 */
+	private void clearSuggestionCache() {
+		final SuggestionCache cache = suggestionCache;
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	/*
+	 * @return the suggestion cache, holding the hit, miss and eviction counters, or null if caching is disabled
+	 */
+	public SuggestionCache getSuggestionCache() {
+		return suggestionCache;
+	}
+
 	public String[] suggestSimilar(String word, int numSug) throws IOException {
 		return this.suggestSimilar(word, numSug, null, null, SuggestMode.SUGGEST_WHEN_NOT_IN_INDEX);
 	}
@@ -127,97 +482,542 @@ public class NotaNgramSpellChecker implements java.io.Closeable {
 
 	public String[] suggestSimilar(String word, int numSug, IndexReader ir, String field, SuggestMode suggestMode,
 			float accuracy) throws IOException {
+		return suggestSimilarScored(word, numSug, ir, field, suggestMode, accuracy).toArray();
+	}
+
+	/**
+	 * The same as {@link #suggestSimilar(String, int, IndexReader, String, SuggestMode, float)}, together with the
+	 * score and the frequency of every suggestion. The frequencies are only determined if a user index and field are
+	 * given and the suggest mode isn't SUGGEST_ALWAYS, see {@link ScoredSuggestions#hasFrequencies()}.
+	 */
+	public ScoredSuggestions suggestSimilarScored(String word, int numSug, IndexReader ir, String field,
+			SuggestMode suggestMode, float accuracy) throws IOException {
+		return suggestSimilarScored(word, numSug, ir, field, suggestMode, accuracy, null);
+	}
+
+	/**
+	 * The same as {@link #suggestSimilarScored(String, int, IndexReader, String, SuggestMode, float)} within the
+	 * given budget. If the budget runs out the best suggestions found so far are returned, see
+	 * {@link ScoredSuggestions#isTruncated()}. Truncated results are not cached.
+	 * 
+	 * @param budget
+	 *            shared by all calls of one request, null for no limit
+	 */
+	public ScoredSuggestions suggestSimilarScored(String word, int numSug, IndexReader ir, String field,
+			SuggestMode suggestMode, float accuracy, SuggestBudget budget) throws IOException {
 		// obtainSearcher calls ensureOpen
-		final IndexSearcher indexSearcher = obtainSearcher();
+		final SpellSearcher spellSearcher = obtainSearcher();
 		try {
-			if (ir == null || field == null) {
-				suggestMode = SuggestMode.SUGGEST_ALWAYS;
+			return suggestSimilarScored(spellSearcher, word, numSug, ir, field, suggestMode, accuracy, budget);
+		} finally {
+			releaseSearcher(spellSearcher);
+		}
+	}
+
+	private ScoredSuggestions suggestSimilarScored(SpellSearcher spellSearcher, String word, int numSug,
+			IndexReader ir, String field, SuggestMode suggestMode, float accuracy, SuggestBudget budget)
+			throws IOException {
+		if (suggestMode == SuggestMode.SUGGEST_WHEN_NOT_IN_INDEX && ir != null && field != null
+				&& isKnownWord(spellSearcher, word)) {
+			return ScoredSuggestions.single(word, 0, false);
+		}
+		if (ir == null || field == null) {
+			suggestMode = SuggestMode.SUGGEST_ALWAYS;
+		}
+		if (suggestMode == SuggestMode.SUGGEST_ALWAYS) {
+			ir = null;
+			field = null;
+		}
+
+		final SuggestionCache cache = this.suggestionCache;
+		if (cache == null) {
+			return suggestSimilar(spellSearcher, word, numSug, ir, field, suggestMode, accuracy, budget);
+		}
+		final SuggestionCache.Key key = new SuggestionCache.Key(word, numSug, accuracy, suggestMode, field, ir);
+		final long epoch = cache.epoch();
+		ScoredSuggestions suggestions = cache.get(key, spellSearcher.generation);
+		if (suggestions == null) {
+			suggestions = suggestSimilar(spellSearcher, word, numSug, ir, field, suggestMode, accuracy, budget);
+			if (!suggestions.isTruncated()) {
+				cache.put(key, suggestions, spellSearcher.generation, epoch);
+			}
+		}
+		return suggestions;
+	}
+
+	/**
+	 * {@link #suggestSimilarScored(String, int, IndexReader, String, SuggestMode, float, SuggestBudget)} for many
+	 * words at once, all of them against the same searcher, which is acquired once for the whole batch. A word that
+	 * occurs more than once is only looked up once.
+	 * 
+	 * @param executor
+	 *            runs the batch in chunks of {@link #BATCH_CHUNK_SIZE} words, e.g. from
+	 *            {@link SpellExecutors#newBoundedExecutor(String, int, boolean)} with virtual threads, null to run
+	 *            it on the calling thread
+	 * @return the suggestions by word, in the order the words first occur in the batch
+	 */
+	public Map<String, ScoredSuggestions> suggestSimilarBatch(Collection<String> words, int numSug, IndexReader ir,
+			String field, SuggestMode suggestMode, float accuracy, SuggestBudget budget, Executor executor)
+			throws IOException {
+		if (executor == null) {
+			final String[] distinct = distinctWords(words);
+			final ScoredSuggestions[] results = new ScoredSuggestions[distinct.length];
+			final SpellSearcher spellSearcher = obtainSearcher();
+			try {
+				suggestChunk(spellSearcher, distinct, results, 0, distinct.length, numSug, ir, field, suggestMode,
+						accuracy, budget);
+			} finally {
+				releaseSearcher(spellSearcher);
+			}
+			return toMap(distinct, results);
+		}
+		try {
+			return suggestSimilarAsync(words, numSug, ir, field, suggestMode, accuracy, budget, executor).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while computing suggestions", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
 			}
-			if (suggestMode == SuggestMode.SUGGEST_ALWAYS) {
-				ir = null;
-				field = null;
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
 			}
+			throw new RuntimeException(cause);
+		}
+	}
 
-			final int freq = (ir != null && field != null) ? ir.docFreq(new Term(field, word)) : 0;
-			final int goalFreq = suggestMode == SuggestMode.SUGGEST_MORE_POPULAR ? freq : 0;
-			// if the word exists in the real index and we don't care for word frequency,
-			// return the word itself
-			if (suggestMode == SuggestMode.SUGGEST_WHEN_NOT_IN_INDEX && freq > 0) {
-				return new String[] { word };
+	/**
+	 * The same as
+	 * {@link #suggestSimilarBatch(Collection, int, IndexReader, String, SuggestMode, float, SuggestBudget, Executor)}
+	 * without waiting for the result. The searcher is released once all chunks are done. An IOException completes
+	 * the future exceptionally with an UncheckedIOException.
+	 * 
+	 * @param executor
+	 *            runs the chunks, null for the default executor of CompletableFuture
+	 */
+	public CompletableFuture<Map<String, ScoredSuggestions>> suggestSimilarAsync(Collection<String> words,
+			final int numSug, final IndexReader ir, final String field, final SuggestMode suggestMode,
+			final float accuracy, final SuggestBudget budget, Executor executor) {
+		final String[] distinct = distinctWords(words);
+		final ScoredSuggestions[] results = new ScoredSuggestions[distinct.length];
+		final SpellSearcher spellSearcher = obtainSearcher();
+		final CompletableFuture<?>[] chunks = new CompletableFuture<?>[(distinct.length + BATCH_CHUNK_SIZE - 1)
+				/ BATCH_CHUNK_SIZE];
+		try {
+			for (int c = 0; c < chunks.length; c++) {
+				final int from = c * BATCH_CHUNK_SIZE;
+				final int to = Math.min(distinct.length, from + BATCH_CHUNK_SIZE);
+				final Runnable chunk = () -> {
+					try {
+						suggestChunk(spellSearcher, distinct, results, from, to, numSug, ir, field, suggestMode,
+								accuracy, budget);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				};
+				chunks[c] = executor != null ? CompletableFuture.runAsync(chunk, executor)
+						: CompletableFuture.runAsync(chunk);
 			}
+		} catch (RuntimeException e) {
+			// e.g. rejected by the executor, release once the chunks submitted so far are done
+			CompletableFuture.allOf(Arrays.copyOf(chunks, countSubmitted(chunks))).whenComplete((v, t) -> {
+				try {
+					releaseSearcher(spellSearcher);
+				} catch (IOException ioe) {
+					// nothing left to report it to
+				}
+			});
+			throw e;
+		}
+		final CompletableFuture<Map<String, ScoredSuggestions>> result = new CompletableFuture<>();
+		// allOf completes once every chunk is done, also if one of them failed
+		CompletableFuture.allOf(chunks).whenComplete((v, failure) -> {
+			try {
+				releaseSearcher(spellSearcher);
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = new UncheckedIOException(e);
+				}
+			}
+			if (failure != null) {
+				result.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null
+						? failure.getCause() : failure);
+			} else {
+				result.complete(toMap(distinct, results));
+			}
+		});
+		return result;
+	}
 
+	private void suggestChunk(SpellSearcher spellSearcher, String[] words, ScoredSuggestions[] results, int from,
+			int to, int numSug, IndexReader ir, String field, SuggestMode suggestMode, float accuracy,
+			SuggestBudget budget) throws IOException {
+		for (int i = from; i < to; i++) {
+			results[i] = suggestSimilarScored(spellSearcher, words[i], numSug, ir, field, suggestMode, accuracy,
+					budget);
+		}
+	}
 
-			BooleanQuery.Builder query = NGram.buildNgramQuery(word);
+	private static String[] distinctWords(Collection<String> words) {
+		final Set<String> distinct = new LinkedHashSet<>(words);
+		distinct.remove(null);
+		return distinct.toArray(new String[distinct.size()]);
+	}
 
-			/*
-			 * This peace of code was made to fasten the search, although this truly
-			 * limits the scope of the search results. Originally the value was set to 10
-			 * which is way too low
-			 */
-			int maxHits = 1000;		
-		
-			ScoreDoc[] hits = indexSearcher.search(query.build(), maxHits).scoreDocs;
-			SuggestWordQueue sugQueue = new SuggestWordQueue(numSug, comparator);
-//			System.out.println("Size of hits : "+ hits.length);
-			
-			
-			// go thru more than 'maxr' matches in case the distance filter triggers
-			int stop = Math.min(hits.length, maxHits);
-			SuggestWord sugWord = new SuggestWord();
-			for (int i = 0; i < stop; i++) {
+	private static int countSubmitted(CompletableFuture<?>[] chunks) {
+		int n = 0;
+		while (n < chunks.length && chunks[n] != null) {
+			n++;
+		}
+		return n;
+	}
 
-				sugWord.string = indexSearcher.doc(hits[i].doc).get(F_WORD); // get orig word
+	private static Map<String, ScoredSuggestions> toMap(String[] words, ScoredSuggestions[] results) {
+		final Map<String, ScoredSuggestions> map = new LinkedHashMap<>();
+		for (int i = 0; i < words.length; i++) {
+			map.put(words[i], results[i]);
+		}
+		return map;
+	}
 
-				// don't suggest a word for itself, that would be silly
-				if (sugWord.string.equals(word)) {
-					continue;
-				}
-				
-				//Added by TR in order to save computation time of distance metric
-				//As it is costly to calculate the distance between two strings, we use the lowest values in the queue
-				//to predict whether or not the suggested word will have a distance near this value.
-				//if so, we can simply skip the word. 
-				if (sugQueue.top() != null && 
-						Math.abs(word.length()-sugWord.string.length()) > (word.length() * (sugQueue.top().score))) {	
-					continue;
+	private ScoredSuggestions suggestSimilar(SpellSearcher spellSearcher, String word, int numSug, IndexReader ir,
+			String field, SuggestMode suggestMode, float accuracy, SuggestBudget budget) throws IOException {
+		final SpellMetrics metrics = this.metrics;
+		final boolean timed = metrics != null;
+		final long start = timed ? System.nanoTime() : 0;
+		final int freq = wordFrequency(spellSearcher, word, ir, field);
+		// if the word exists in the real index and we don't care for word frequency,
+		// return the word itself
+		if (suggestMode == SuggestMode.SUGGEST_WHEN_NOT_IN_INDEX && freq > 0) {
+			if (timed) {
+				final long nanos = System.nanoTime() - start;
+				final SpellWords words = spellSearcher.snapshot != null ? spellSearcher.snapshot : spellSearcher.words;
+				metrics.recordInIndex(nanos, nanos, useSpellIndexFrequencies && words.hasFrequencies() ? 0 : 1);
+			}
+			return ScoredSuggestions.single(word, freq, true);
+		}
+		return suggestCandidates(spellSearcher, word, freq, numSug, ir, field, suggestMode, accuracy, budget,
+				timed ? System.nanoTime() - start : 0);
+	}
+
+	/*
+	 * The frequency of the word in the field of the user index as used by suggestSimilar, 0 without a user index
+	 */
+	private int wordFrequency(SpellSearcher spellSearcher, String word, IndexReader ir, String field)
+			throws IOException {
+		if (ir == null || field == null) {
+			return 0;
+		}
+		final SpellWords words = spellSearcher.snapshot != null ? spellSearcher.snapshot : spellSearcher.words;
+		return useSpellIndexFrequencies && words.hasFrequencies() ? frequency(spellSearcher, word)
+				: ir.docFreq(new Term(field, word));
+	}
+
+	/*
+	 * For ShardedNotaSpellChecker: the frequency of a word as suggestSimilar determines it, to be asked from the
+	 * shard holding the word. suggestMode, ir and field as normalized by suggestSimilarScored. The docFreq call, if
+	 * any, is added to counts unless it is null.
+	 */
+	int wordFrequency(String word, IndexReader ir, String field, SpellMetrics.SuggestCounts counts)
+			throws IOException {
+		final SpellSearcher spellSearcher = obtainSearcher();
+		try {
+			final long start = counts != null ? System.nanoTime() : 0;
+			final int freq = wordFrequency(spellSearcher, word, ir, field);
+			if (counts != null && ir != null && field != null) {
+				final SpellWords words = spellSearcher.snapshot != null ? spellSearcher.snapshot
+						: spellSearcher.words;
+				if (!(useSpellIndexFrequencies && words.hasFrequencies())) {
+					counts.docFreqCount++;
+					counts.docFreqNanos += System.nanoTime() - start;
 				}
-				
-				// edit distance
-				sugWord.score = sd.getDistance(word, sugWord.string);
-				if (sugWord.score < accuracy) {
-					continue;
+			}
+			return freq;
+		} finally {
+			releaseSearcher(spellSearcher);
+		}
+	}
+
+	/*
+	 * For ShardedNotaSpellChecker: the best candidates of this shard for a word by gram overlap, ranked the same way
+	 * on every shard (see GramOverlapCandidates), such that the best maxHits of all shards are the candidates of a
+	 * single spell index with candidateStrategy GRAM_OVERLAP.
+	 */
+	ShardedNotaSpellChecker.Candidates shardCandidates(String word, int numSug, float accuracy) throws IOException {
+		final SpellSearcher spellSearcher = obtainSearcher();
+		try {
+			final int maxHits = candidateHits(word, numSug);
+			int minLength = 0;
+			int maxLength = Integer.MAX_VALUE;
+			if (boundedSd != null) {
+				minLength = boundedSd.minCandidateLength(word.length(), accuracy);
+				maxLength = boundedSd.maxCandidateLength(word.length(), accuracy);
+			}
+			final WordTable words = spellSearcher.words;
+			final List<Term> grams = NGram.distinctGramTerms(word);
+			final long[] ranks = new long[maxHits];
+			final int[] hits = GramOverlapCandidates.topCandidates(spellSearcher.reader(), grams,
+					minOverlap(word, grams, accuracy), maxHits, words, minLength, maxLength, ranks);
+			final String[] candidates = new String[hits.length];
+			final int[] freqs = words.hasFrequencies() ? new int[hits.length] : null;
+			for (int i = 0; i < hits.length; i++) {
+				candidates[i] = words.word(hits[i]);
+				if (freqs != null) {
+					freqs[i] = words.freq(hits[i]);
 				}
+			}
+			return new ShardedNotaSpellChecker.Candidates(candidates, Arrays.copyOf(ranks, hits.length), freqs);
+		} finally {
+			releaseSearcher(spellSearcher);
+		}
+	}
+
+	/*
+	 * wordFreqNanos: the time it took to determine freq, for the metrics
+	 */
+	private ScoredSuggestions suggestCandidates(SpellSearcher spellSearcher, String word, int freq, int numSug,
+			IndexReader ir, String field, SuggestMode suggestMode, float accuracy, SuggestBudget budget,
+			long wordFreqNanos) throws IOException {
+		final boolean timed = metrics != null;
+		final long start = timed ? System.nanoTime() : 0;
+		final SpellSnapshot snapshot = spellSearcher.snapshot;
+		final SpellWords words = snapshot != null ? snapshot : spellSearcher.words;
+		if (budget != null && budget.exhausted()) {
+			// nothing left for this word, e.g. the other tokens of the request took all the time
+			return new ScoredSuggestions(new String[0], new float[0], new int[0], ir != null && field != null, true);
+		}
+
+		final int maxHits = candidateHits(word, numSug);
+		
+		// the lengths a candidate can have and still reach the accuracy, if the distance measure can tell
+		int minLength = 0;
+		int maxLength = Integer.MAX_VALUE;
+		if (boundedSd != null) {
+			minLength = boundedSd.minCandidateLength(word.length(), accuracy);
+			maxLength = boundedSd.maxCandidateLength(word.length(), accuracy);
+		}
+		final boolean restrictLength = minLength > 0 || maxLength < Integer.MAX_VALUE;
+
+		final int[] hits;
+		final DeleteNeighbourhood deletes = spellSearcher.deletes;
+		if (candidateStrategy == CandidateStrategy.DELETES && deletes != null) {
+			// ids of the snapshot or the word table, whichever the searcher serves from
+			hits = deletes.candidates(word, words, maxHits, minLength, maxLength);
+		} else if (snapshot != null) {
+			// a snapshot has no Lucene index to run a query on, its candidates always come from gram overlap
+			List<Term> grams = NGram.distinctGramTerms(word);
+			hits = GramOverlapCandidates.topCandidates(snapshot, grams, minOverlap(word, grams, accuracy), maxHits,
+					minLength, maxLength);
+		} else if (candidateStrategy == CandidateStrategy.GRAM_OVERLAP) {
+			List<Term> grams = NGram.distinctGramTerms(word);
+			hits = GramOverlapCandidates.topCandidates(spellSearcher.reader(), grams,
+					minOverlap(word, grams, accuracy), maxHits, spellSearcher.words, minLength, maxLength);
+		} else if (candidateStrategy == CandidateStrategy.AUTOMATON) {
+			final int[] close = AutomatonCandidates.topCandidates(spellSearcher.reader(), F_WORD, word,
+					automatonDistance, automatonPrefixLength, maxHits, spellSearcher.words, minLength, maxLength);
+			// too few words within reach of the automaton, the n-gram query finds the ones further away
+			hits = close.length < numSug ? append(close,
+					ngramCandidates(spellSearcher, word, maxHits, minLength, maxLength, restrictLength), maxHits)
+					: close;
+		} else {
+			hits = ngramCandidates(spellSearcher, word, maxHits, minLength, maxLength, restrictLength);
+		}
+		return scoreCandidates(words, hits, word, freq, numSug, ir, field, suggestMode, accuracy, budget,
+				timed ? System.nanoTime() - start : 0, wordFreqNanos, null);
+	}
+
+	/*
+	 * The distance loop of suggestSimilar over the given candidates, in their order. Also used by
+	 * ShardedNotaSpellChecker on the candidates of all shards, words being the merged words then.
+	 * candidateNanos: the time it took to retrieve the candidates, for the metrics
+	 * wordFreqNanos: the time it took to determine freq, for the metrics, -1 if it was determined elsewhere
+	 * counts: collects the counts of the call rather than recording them into the metrics, may be null
+	 */
+	ScoredSuggestions scoreCandidates(SpellWords words, int[] hits, String word, int freq, int numSug,
+			IndexReader ir, String field, SuggestMode suggestMode, float accuracy, SuggestBudget budget,
+			long candidateNanos, long wordFreqNanos, SpellMetrics.SuggestCounts counts) throws IOException {
+		final SpellMetrics metrics = this.metrics;
+		final boolean timed = metrics != null || counts != null;
+		final long retrieved = timed ? System.nanoTime() : 0;
+		final boolean spellFreqs = useSpellIndexFrequencies && words.hasFrequencies();
+		final int goalFreq = suggestMode == SuggestMode.SUGGEST_MORE_POPULAR ? freq : 0;
+		final boolean hasFrequencies = ir != null && field != null;
+		final int earlyTerminationHits = this.earlyTerminationHits;
+		// reused by the thread, no SuggestWord per candidate
+		final TopSuggestions top = TopSuggestions.get(numSug, comparator);
+//			System.out.println("Size of hits : "+ hits.length);
+		
+		
+		// go thru more than 'maxr' matches in case the distance filter triggers
+		int stop = hits.length;
+		boolean truncated = false;
+		// candidates in a row that didn't make it into the full queue
+		int misses = 0;
+		// for the metrics, counted whether metrics are recorded or not, that's cheaper than checking
+		int examined = 0;
+		int pruned = 0;
+		int distanceCount = 0;
+		int insertions = 0;
+		int docFreqCount = wordFreqNanos >= 0 && ir != null && field != null && !spellFreqs ? 1 : 0;
+		long docFreqNanos = Math.max(0, wordFreqNanos);
+		for (int i = 0; i < stop; i++) {
+			if (earlyTerminationHits > 0 && misses >= earlyTerminationHits) {
+				break;
+			}
+			if (top.size() == numSug) {
+				// counts as a miss unless it is inserted below
+				misses++;
+			}
+
+			final int doc = hits[i];
+			examined++;
 
-				if (ir != null && field != null) { // use the user index
-					sugWord.freq = ir.docFreq(new Term(field, sugWord.string)); // freq in the index
-					// don't suggest a word that is not present in the field
-					if ((suggestMode == SuggestMode.SUGGEST_MORE_POPULAR && goalFreq > sugWord.freq)
-							|| sugWord.freq < 1) {
-						continue;
+			// don't suggest a word for itself, that would be silly
+			if (words.equalsWord(doc, word)) {
+				continue;
+			}
+			
+			//Added by TR in order to save computation time of distance metric
+			//As it is costly to calculate the distance between two strings, we use the lowest values in the queue
+			//to predict whether or not the suggested word will have a distance near this value.
+			//if so, we can simply skip the word. 
+			if (top.size() > 0 && 
+					Math.abs(word.length()-words.length(doc)) > (word.length() * top.worstScore())) {	
+				pruned++;
+				continue;
+			}
+
+			if (budget != null && !budget.charge()) {
+				// out of budget, go with what we have
+				truncated = true;
+				break;
+			}
+			final String candidate = words.word(doc); // get orig word from the word table
+			
+			// edit distance, bounded by the current minimum score if the distance supports it
+			final float score = boundedSd != null ? boundedSd.getDistance(word, candidate, accuracy)
+					: sd.getDistance(word, candidate);
+			distanceCount++;
+			if (score < accuracy) {
+				continue;
+			}
+
+			int candidateFreq = 0;
+			if (ir != null && field != null) { // use the user index
+				// freq in the index, as stored in the spell index at build time if requested
+				if (spellFreqs) {
+					candidateFreq = words.freq(doc);
+				} else {
+					final long docFreqStart = timed ? System.nanoTime() : 0;
+					candidateFreq = ir.docFreq(new Term(field, candidate));
+					docFreqCount++;
+					if (timed) {
+						docFreqNanos += System.nanoTime() - docFreqStart;
 					}
 				}
-				sugQueue.insertWithOverflow(sugWord);
-				if (sugQueue.size() == numSug) {
-					// if queue full, maintain the minScore score
-					accuracy = sugQueue.top().score;
+				// don't suggest a word that is not present in the field
+				if ((suggestMode == SuggestMode.SUGGEST_MORE_POPULAR && goalFreq > candidateFreq)
+						|| candidateFreq < 1) {
+					continue;
 				}
-				sugWord = new SuggestWord();
 			}
-
-			// convert to array string
-			String[] list = new String[sugQueue.size()];
-			for (int i = sugQueue.size() - 1; i >= 0; i--) {
-				list[i] = sugQueue.pop().string;
+			if (top.insertWithOverflow(candidate, score, candidateFreq)) {
+				misses = 0;
+				insertions++;
+			}
+			if (top.size() == numSug) {
+				// if queue full, maintain the minScore score
+				accuracy = top.worstScore();
 			}
+		}
 
-			return list;
-		} finally {
-			releaseSearcher(indexSearcher);
+		if (timed) {
+			// the docFreq calls are taken out of the distance loop, they are reported on their own
+			final long distanceNanos = System.nanoTime() - retrieved - (docFreqNanos - Math.max(0, wordFreqNanos));
+			if (counts != null) {
+				counts.candidateNanos += candidateNanos;
+				counts.distanceNanos += distanceNanos;
+				counts.docFreqNanos += docFreqNanos;
+				counts.examined += examined;
+				counts.pruned += pruned;
+				counts.distanceCount += distanceCount;
+				counts.insertions += insertions;
+				counts.docFreqCount += docFreqCount;
+			} else {
+				metrics.recordSuggest(candidateNanos, distanceNanos, docFreqNanos, examined, pruned,
+						distanceCount, insertions, docFreqCount);
+			}
 		}
+		return top.drain(hasFrequencies, truncated);
 	}
 
 	
 
+	/*
+	 * The minimum gram overlap of a candidate, the bound only holds for the Levenshtein distance. Any other
+	 * distance (JaroWinkler, NGramDistance, a weighted Levenshtein) may score a word sharing a single gram high.
+	 */
+	private int minOverlap(String word, List<Term> grams, float accuracy) {
+		return boundedSd instanceof BoundedLevensteinDistance ? GramOverlapCandidates.minOverlap(word, grams, accuracy)
+				: 1;
+	}
+
+	/*
+	 * The top hits of the n-gram query of the word, see CandidateStrategy.NGRAM_QUERY
+	 */
+	private static int[] ngramCandidates(SpellSearcher spellSearcher, String word, int maxHits, int minLength,
+			int maxLength, boolean restrictLength) throws IOException {
+		BooleanQuery.Builder query = NGram.buildNgramQuery(word);
+		if (restrictLength && spellSearcher.lengthIndexed) {
+			// filter before retrieval, such that no hit is spent on a word of the wrong length
+			BooleanQuery.Builder filtered = new BooleanQuery.Builder();
+			filtered.add(query.build(), BooleanClause.Occur.MUST);
+			filtered.add(IntPoint.newRangeQuery(NGram.F_LENGTH, minLength, maxLength), BooleanClause.Occur.FILTER);
+			query = filtered;
+		}
+		ScoreDoc[] scoreDocs = spellSearcher.searcher.search(query.build(), maxHits).scoreDocs;
+		int[] hits = new int[scoreDocs.length];
+		for (int i = 0; i < scoreDocs.length; i++) {
+			hits[i] = scoreDocs[i].doc;
+		}
+		return hits;
+	}
+
+	/*
+	 * first followed by the hits of more that are not in first, at most maxHits. first is short.
+	 */
+	private static int[] append(int[] first, int[] more, int maxHits) {
+		int[] hits = Arrays.copyOf(first, Math.min(maxHits, first.length + more.length));
+		int n = first.length;
+		for (int i = 0; i < more.length && n < hits.length; i++) {
+			boolean seen = false;
+			for (int doc : first) {
+				if (doc == more[i]) {
+					seen = true;
+					break;
+				}
+			}
+			if (!seen) {
+				hits[n++] = more[i];
+			}
+		}
+		return n == hits.length ? hits : Arrays.copyOf(hits, n);
+	}
+
+	/*
+	 * The number of candidates to retrieve for a word, see setHitsPerGram
+	 */
+	int candidateHits(String word, int numSug) {
+		final int max = this.maxHits;
+		final int perGram = this.hitsPerGram;
+		if (perGram == 0) {
+			return max;
+		}
+		return (int) Math.min(max, Math.max(numSug, (long) perGram * NGram.gramCount(word)));
+	}
+
 	public void clearIndex() throws IOException {
 		synchronized (modifyCurrentIndexLock) {
 			ensureOpen();
@@ -228,82 +1028,543 @@ public class NotaNgramSpellChecker implements java.io.Closeable {
 		}
 	}
 
+	/**
+	 * The user data of the last commit of the spell index, empty if there is no commit yet. Used to record what
+	 * the spell index was built from, see {@link #setCommitUserData(Map)}.
+	 */
+	public Map<String, String> getCommitUserData() throws IOException {
+		synchronized (modifyCurrentIndexLock) {
+			ensureOpen();
+			if (!DirectoryReader.indexExists(spellIndex)) {
+				return Collections.emptyMap();
+			}
+			return SegmentInfos.readLatestCommit(spellIndex).getUserData();
+		}
+	}
+
+	/**
+	 * Commits the given user data to the spell index. The user data survives incremental updates, a rebuild after
+	 * {@link #clearIndex()} starts without user data.
+	 */
+	public void setCommitUserData(Map<String, String> userData) throws IOException {
+		synchronized (modifyCurrentIndexLock) {
+			ensureOpen();
+			final IndexWriter writer = new IndexWriter(spellIndex,
+					new IndexWriterConfig(null).setOpenMode(OpenMode.APPEND));
+			try {
+				writer.setLiveCommitData(new HashMap<>(userData).entrySet());
+				writer.commit();
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
 	public boolean exist(String word) throws IOException {
 		// obtainSearcher calls ensureOpen
-		final IndexSearcher indexSearcher = obtainSearcher();
+		final SpellSearcher spellSearcher = obtainSearcher();
 		try {
+			if (spellSearcher.snapshot != null) {
+				return spellSearcher.snapshot.ordinal(word) >= 0;
+			}
 			// TODO: we should use ReaderUtil+seekExact, we dont care about the docFreq
 			// this is just an existence check
-			return indexSearcher.getIndexReader().docFreq(new Term(F_WORD, word)) > 0;
+			return spellSearcher.reader().docFreq(new Term(F_WORD, word)) > 0;
 		} finally {
-			releaseSearcher(indexSearcher);
+			releaseSearcher(spellSearcher);
+		}
+	}
+
+	/**
+	 * The frequency of the word as stored in the spell index at build time, 0 if the word is not in the spell
+	 * index or the index was built without frequencies.
+	 */
+	public int frequency(String word) throws IOException {
+		return Math.max(storedFrequency(word), 0);
+	}
+
+	/*
+	 * Like frequency(String), but -1 if the spell index was built without frequencies so callers can fall back to
+	 * the user index
+	 */
+	int storedFrequency(String word) throws IOException {
+		final SpellSearcher spellSearcher = obtainSearcher();
+		try {
+			final SpellWords words = spellSearcher.snapshot != null ? spellSearcher.snapshot : spellSearcher.words;
+			return words.hasFrequencies() ? frequency(spellSearcher, word) : -1;
+		} finally {
+			releaseSearcher(spellSearcher);
+		}
+	}
+
+	private int frequency(SpellSearcher spellSearcher, String word) throws IOException {
+		if (spellSearcher.snapshot != null) {
+			final int ord = spellSearcher.snapshot.ordinal(word);
+			return ord < 0 ? 0 : spellSearcher.snapshot.freq(ord);
+		}
+		final BytesRef bytes = new BytesRef(word);
+		PostingsEnum postings = null;
+		for (LeafReaderContext ctx : spellSearcher.reader().leaves()) {
+			Terms terms = ctx.reader().terms(F_WORD);
+			if (terms == null) {
+				continue;
+			}
+			TermsEnum te = terms.iterator();
+			if (!te.seekExact(bytes)) {
+				continue;
+			}
+			final Bits liveDocs = ctx.reader().getLiveDocs();
+			postings = te.postings(postings, PostingsEnum.NONE);
+			for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+				if (liveDocs == null || liveDocs.get(doc)) {
+					return spellSearcher.words.freq(ctx.docBase + doc);
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Updates the frequencies stored in the spell index with the document frequencies of the words in the given
+	 * field of the source reader. Does nothing if the spell index was built without frequencies.
+	 * 
+	 * @return the number of words whose frequency changed
+	 */
+	public int refreshFrequencies(IndexReader source, String field) throws IOException {
+		synchronized (modifyCurrentIndexLock) {
+			ensureOpen();
+			final Directory dir = this.spellIndex;
+			final SpellSearcher spellSearcher = obtainSearcher();
+			int updated = 0;
+			try {
+				final WordTable words = spellSearcher.words;
+				if (!words.hasFrequencies()) {
+					return 0;
+				}
+				final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(null).setOpenMode(OpenMode.APPEND));
+				try {
+					for (int doc = 0; doc < words.size(); doc++) {
+						if (words.length(doc) == 0) {
+							continue;
+						}
+						String word = words.word(doc);
+						int freq = source.docFreq(new Term(field, word));
+						if (freq != words.freq(doc)) {
+							writer.updateNumericDocValue(new Term(F_WORD, word), NGram.F_FREQ, freq);
+							updated++;
+						}
+					}
+				} finally {
+					writer.close();
+				}
+			} finally {
+				releaseSearcher(spellSearcher);
+			}
+			if (updated > 0) {
+				swapSearcher(dir);
+			}
+			return updated;
 		}
 	}
 
 	public final void indexDictionary(Dictionary dict, IndexWriterConfig config, boolean fullMerge) throws IOException {
+		indexDictionary(dict, config, fullMerge, 1);
+	}
+
+	/**
+	 * Adds the words of the dictionary that are not in the spell index yet.
+	 * 
+	 * @param threads
+	 *            with more than one thread the calling thread only reads the dictionary, the documents are created
+	 *            and added to the (shared) IndexWriter by this many worker threads
+	 * @return statistics of the build, e.g. the throughput
+	 */
+	public final BuildStats indexDictionary(Dictionary dict, IndexWriterConfig config, boolean fullMerge, int threads)
+			throws IOException {
 		synchronized (modifyCurrentIndexLock) {
 			ensureOpen();
+			final long start = System.nanoTime();
 			final Directory dir = this.spellIndex;
 			final IndexWriter writer = new IndexWriter(dir, config);
-			IndexSearcher indexSearcher = obtainSearcher();
-			final List<TermsEnum> termsEnums = new ArrayList<>();
-
-			final IndexReader reader = searcher.getIndexReader();
-			if (reader.maxDoc() > 0) {
-				for (final LeafReaderContext ctx : reader.leaves()) {
-					Terms terms = ctx.reader().terms(F_WORD);
-					if (terms != null)
-						termsEnums.add(terms.iterator());
+			final long[] counts;
+			boolean success = false;
+			try {
+				final SpellSearcher spellSearcher = obtainSearcher();
+				try {
+					final List<TermsEnum> termsEnums = new ArrayList<>();
+					final IndexReader reader = spellSearcher.reader();
+					if (reader.maxDoc() > 0) {
+						for (final LeafReaderContext ctx : reader.leaves()) {
+							Terms terms = ctx.reader().terms(F_WORD);
+							if (terms != null)
+								termsEnums.add(terms.iterator());
+						}
+					}
+					counts = addWords(writer, dict, termsEnums, threads);
+				} finally {
+					releaseSearcher(spellSearcher);
+				}
+				if (fullMerge) {
+					writer.forceMerge(1);
+				}
+				// close writer
+				writer.close();
+				success = true;
+			} finally {
+				if (!success) {
+					// releases the write lock (a no-op if addWords rolled back already)
+					try {
+						writer.rollback();
+					} catch (IOException | RuntimeException e) {
+						// ignore, the exception that made the build fail is the one to report
+					}
 				}
 			}
 
-			boolean isEmpty = termsEnums.isEmpty();
+			swapSearcher(dir);
+			final SpellMetrics metrics = this.metrics;
+			if (metrics != null) {
+				metrics.recordBuild(System.nanoTime() - start, counts[1]);
+			}
+			return new BuildStats(counts[0], counts[1], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+					Math.max(1, threads));
+		}
+	}
+
+	/*
+	 * Adds the words of the dictionary that none of the terms enums has, rolls the writer back on failure.
+	 * @return the number of words read and added
+	 */
+	private static long[] addWords(IndexWriter writer, Dictionary dict, List<TermsEnum> termsEnums, int threads)
+			throws IOException {
+		final ParallelIndexer indexer = threads > 1 ? new ParallelIndexer(writer, threads) : null;
+		long read = 0;
+		long added = 0;
+		boolean success = false;
+		boolean isEmpty = termsEnums.isEmpty();
 
-			try {
-				BytesRefIterator iter = dict.getEntryIterator();
-				BytesRef currentTerm;
+		try {
+			InputIterator iter = dict.getEntryIterator();
+			BytesRef currentTerm;
 
-				terms: while ((currentTerm = iter.next()) != null) {
+			terms: while ((currentTerm = iter.next()) != null) {
 
-					String word = currentTerm.utf8ToString();
+				read++;
+				String word = currentTerm.utf8ToString();
 
-					if (!isEmpty) {
-						for (TermsEnum te : termsEnums) {
-							if (te.seekExact(currentTerm)) {
-								continue terms;
-							}
+				if (!isEmpty) {
+					for (TermsEnum te : termsEnums) {
+						if (te.seekExact(currentTerm)) {
+							continue terms;
 						}
 					}
+				}
 
-					// ok index the word
-					Document doc = NGram.createDocument(word);
-					writer.addDocument(doc);
+				// ok index the word
+				added++;
+				if (indexer != null) {
+					indexer.add(word, iter.weight());
+				} else {
+					writer.addDocument(NGram.reusableDocument(word, iter.weight()));
+				}
+			}
+			if (indexer != null) {
+				indexer.finish();
+			}
+			success = true;
+		} finally {
+			if (!success) {
+				if (indexer != null) {
+					indexer.abort();
+				}
+				try {
+					writer.rollback();
+				} catch (IOException | RuntimeException e) {
+					// ignore, the exception that made the build fail is the one to report
+				}
+			}
+		}
+		return new long[] { read, added };
+	}
+
+	/**
+	 * Builds a new spell index from the dictionary in the given (empty or to be overwritten) directory, while the
+	 * current spell index keeps serving suggestions. The new index is warmed up with suggestSimilar calls for the
+	 * given words and only then becomes the spell index of this checker. The previous directory is left alone, it
+	 * can be closed and deleted once this method returns.
+	 * 
+	 * @param warmupWords
+	 *            words to run through suggestSimilar on the new index before it is installed, may be empty
+	 */
+	public final BuildStats rebuildInto(Directory target, Dictionary dict, IndexWriterConfig config,
+			boolean fullMerge, int threads, Collection<String> warmupWords) throws IOException {
+		synchronized (rebuildLock) {
+			ensureOpen();
+			final long start = System.nanoTime();
+			final IndexWriter writer = new IndexWriter(target, config.setOpenMode(OpenMode.CREATE));
+			final long[] counts;
+			boolean success = false;
+			try {
+				counts = addWords(writer, dict, Collections.<TermsEnum> emptyList(), threads);
+				if (fullMerge) {
+					writer.forceMerge(1);
 				}
+				writer.close();
+				success = true;
 			} finally {
-				releaseSearcher(indexSearcher);
+				if (!success) {
+					// releases the write lock, such that the caller can delete the target (a no-op if addWords
+					// rolled back already)
+					try {
+						writer.rollback();
+					} catch (IOException | RuntimeException e) {
+						// ignore, the exception that made the build fail is the one to report
+					}
+				}
+			}
+
+			final SpellSearcher prepared = prepareSearcher(target);
+			try {
+				for (String word : warmupWords) {
+					suggestSimilar(prepared, word, 5, null, null, SuggestMode.SUGGEST_ALWAYS, accuracy, null);
+				}
+			} catch (IOException | RuntimeException e) {
+				prepared.reader().decRef();
+				throw e;
 			}
-			if (fullMerge) {
-				writer.forceMerge(1);
+			synchronized (modifyCurrentIndexLock) {
+				installSearcher(prepared, target);
+			}
+			final SpellMetrics metrics = this.metrics;
+			if (metrics != null) {
+				metrics.recordBuild(System.nanoTime() - start, counts[1]);
+			}
+			return new BuildStats(counts[0], counts[1], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+					Math.max(1, threads));
+		}
+	}
+
+	
+
+	/**
+	 * Brings the spell index in line with the dictionary without rebuilding it: words that are new in the
+	 * dictionary are added, words that are no longer in the dictionary (e.g. because their frequency dropped below
+	 * the threshold of a HighFrequencyDictionary) are deleted and stored frequencies are updated. The current
+	 * searcher keeps serving suggestions until the changes are committed.
+	 * 
+	 * The words of the spell index and the dictionary are compared with a sorted merge. Entries of a
+	 * HighFrequencyDictionary are already sorted, other dictionaries are loaded and sorted in memory first.
+	 * 
+	 * @param threads
+	 *            number of threads creating and adding the documents of new words, see
+	 *            {@link #indexDictionary(Dictionary, IndexWriterConfig, boolean, int)}
+	 */
+	public final BuildStats updateDictionary(Dictionary dict, IndexWriterConfig config, boolean fullMerge, int threads)
+			throws IOException {
+		synchronized (modifyCurrentIndexLock) {
+			ensureOpen();
+			final long start = System.nanoTime();
+			final Directory dir = this.spellIndex;
+			final IndexWriter writer = new IndexWriter(dir, config.setOpenMode(OpenMode.CREATE_OR_APPEND));
+			final SpellSearcher spellSearcher = obtainSearcher();
+			final ParallelIndexer indexer = threads > 1 ? new ParallelIndexer(writer, threads) : null;
+			long read = 0;
+			long added = 0;
+			long deleted = 0;
+			boolean success = false;
+			try {
+				final IndexReader reader = spellSearcher.reader();
+				final WordTable words = spellSearcher.words;
+				final Bits liveDocs = MultiFields.getLiveDocs(reader);
+				final Terms terms = MultiFields.getTerms(reader, F_WORD);
+				final TermsEnum spellTerms = terms == null ? null : terms.iterator();
+				final SortedEntries entries = new SortedEntries(dict);
+				PostingsEnum postings = null;
+
+				BytesRef spellTerm = null;
+				int spellDoc = -1;
+				// next spell term with a live document
+				while (spellTerms != null && (spellTerm = spellTerms.next()) != null) {
+					postings = spellTerms.postings(postings, PostingsEnum.NONE);
+					if ((spellDoc = liveDoc(postings, liveDocs)) != -1) {
+						break;
+					}
+				}
+				BytesRef dictTerm = entries.next();
+
+				while (spellTerm != null || dictTerm != null) {
+					final int cmp;
+					if (spellTerm == null) {
+						cmp = 1;
+					} else if (dictTerm == null) {
+						cmp = -1;
+					} else {
+						cmp = spellTerm.compareTo(dictTerm);
+					}
+					if (cmp < 0) {
+						// gone from the dictionary
+						writer.deleteDocuments(new Term(F_WORD, BytesRef.deepCopyOf(spellTerm)));
+						deleted++;
+					} else if (cmp > 0) {
+						// new in the dictionary
+						read++;
+						added++;
+						if (indexer != null) {
+							indexer.add(dictTerm.utf8ToString(), entries.weight());
+						} else {
+							writer.addDocument(NGram.reusableDocument(dictTerm.utf8ToString(), entries.weight()));
+						}
+					} else {
+						read++;
+						if (words.hasFrequencies() && words.freq(spellDoc) != entries.weight()) {
+							writer.updateNumericDocValue(new Term(F_WORD, BytesRef.deepCopyOf(spellTerm)), NGram.F_FREQ,
+									entries.weight());
+						}
+					}
+					if (cmp <= 0) {
+						while ((spellTerm = spellTerms.next()) != null) {
+							postings = spellTerms.postings(postings, PostingsEnum.NONE);
+							if ((spellDoc = liveDoc(postings, liveDocs)) != -1) {
+								break;
+							}
+						}
+					}
+					if (cmp >= 0) {
+						dictTerm = entries.next();
+					}
+				}
+				if (indexer != null) {
+					indexer.finish();
+				}
+				if (fullMerge) {
+					writer.forceMerge(1);
+				}
+				writer.close();
+				success = true;
+			} finally {
+				releaseSearcher(spellSearcher);
+				if (!success) {
+					if (indexer != null) {
+						indexer.abort();
+					}
+					try {
+						writer.rollback();
+					} catch (IOException | RuntimeException e) {
+						// ignore, the exception that made the update fail is the one to report
+					}
+				}
 			}
-			// close writer
-			writer.close();
 
 			swapSearcher(dir);
+			return new BuildStats(read, added, deleted, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+					Math.max(1, threads));
 		}
 	}
 
-	
+	/*
+	 * The first live doc of the postings, -1 if all documents of the term have been deleted
+	 * */
+	private static int liveDoc(PostingsEnum postings, Bits liveDocs) throws IOException {
+		for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+			if (liveDocs == null || liveDocs.get(doc)) {
+				return doc;
+			}
+		}
+		return -1;
+	}
 
-	private IndexSearcher obtainSearcher() {
-		synchronized (searcherLock) {
+	/*
+	 * The entries of a dictionary in BytesRef order without duplicates
+	 * */
+	private static final class SortedEntries {
+		private final InputIterator iter;
+		private final List<BytesRef> sortedTerms;
+		private final List<Long> sortedWeights;
+		private int pos = -1;
+		private BytesRef previous;
+		private long weight;
+
+		SortedEntries(Dictionary dict) throws IOException {
+			if (dict instanceof HighFrequencyDictionary) {
+				iter = dict.getEntryIterator();
+				sortedTerms = null;
+				sortedWeights = null;
+				return;
+			}
+			iter = null;
+			final List<Entry> entries = new ArrayList<>();
+			final InputIterator it = dict.getEntryIterator();
+			BytesRef term;
+			while ((term = it.next()) != null) {
+				entries.add(new Entry(BytesRef.deepCopyOf(term), it.weight()));
+			}
+			Collections.sort(entries);
+			sortedTerms = new ArrayList<>(entries.size());
+			sortedWeights = new ArrayList<>(entries.size());
+			for (Entry e : entries) {
+				sortedTerms.add(e.term);
+				sortedWeights.add(e.weight);
+			}
+		}
+
+		BytesRef next() throws IOException {
+			BytesRef next;
+			do {
+				if (iter != null) {
+					next = iter.next();
+					weight = next == null ? 0 : iter.weight();
+				} else if (++pos < sortedTerms.size()) {
+					next = sortedTerms.get(pos);
+					weight = sortedWeights.get(pos);
+				} else {
+					next = null;
+				}
+			} while (next != null && previous != null && next.bytesEquals(previous));
+			// iterators may reuse their BytesRef, keep our own copy for the duplicate check
+			previous = next == null ? null : BytesRef.deepCopyOf(next);
+			return previous;
+		}
+
+		long weight() {
+			return weight;
+		}
+
+		private static final class Entry implements Comparable<Entry> {
+			final BytesRef term;
+			final long weight;
+
+			Entry(BytesRef term, long weight) {
+				this.term = term;
+				this.weight = weight;
+			}
+
+			@Override
+			public int compareTo(Entry o) {
+				return term.compareTo(o.term);
+			}
+		}
+	}
+
+	/*
+	 * Lock free: a searcher that is replaced between reading the reference and incRef may already be released,
+	 * then tryIncRef fails and the replacement is picked up. Replacing installs the new searcher before releasing
+	 * the old one, so this never spins for long.
+	 */
+	private SpellSearcher obtainSearcher() {
+		while (true) {
 			ensureOpen();
-			searcher.getIndexReader().incRef();
-			return searcher;
+			final SpellSearcher current = searcher;
+			if (current == null) {
+				throw new AlreadyClosedException("Spellchecker has been closed");
+			}
+			if (current.reader().tryIncRef()) {
+				return current;
+			}
 		}
 	}
 
-	private void releaseSearcher(final IndexSearcher aSearcher) throws IOException {
-		aSearcher.getIndexReader().decRef();
+	private void releaseSearcher(final SpellSearcher aSearcher) throws IOException {
+		aSearcher.reader().decRef();
 	}
 
 	private void ensureOpen() {
@@ -317,10 +1578,11 @@ public class NotaNgramSpellChecker implements java.io.Closeable {
 		synchronized (searcherLock) {
 			ensureOpen();
 			closed = true;
-			if (searcher != null) {
-				searcher.getIndexReader().close();
-			}
+			final SpellSearcher previous = searcher;
 			searcher = null;
+			if (previous != null) {
+				previous.reader().decRef();
+			}
 		}
 	}
 
@@ -330,21 +1592,86 @@ public class NotaNgramSpellChecker implements java.io.Closeable {
 		 * the Spellchecker was closed during this operation than block access to the
 		 * current searcher while opening.
 		 */
+		final SpellMetrics metrics = this.metrics;
+		final long start = metrics != null ? System.nanoTime() : 0;
+		installSearcher(prepareSearcher(dir), dir);
+		if (metrics != null) {
+			metrics.recordSwap(System.nanoTime() - start);
+		}
+	}
+
+	/*
+	 * Opens a searcher with its word table, not installed yet: the generation is only assigned by installSearcher
+	 * */
+	private SpellSearcher prepareSearcher(final Directory dir) throws IOException {
 		final IndexSearcher indexSearcher = createSearcher(dir);
+		final WordTable words;
+		try {
+			// the word table is built once per searcher, such that candidates never touch the stored fields
+			words = WordTable.build(indexSearcher.getIndexReader(), F_WORD, NGram.F_FREQ);
+		} catch (IOException | RuntimeException e) {
+			indexSearcher.getIndexReader().close();
+			throw e;
+		}
+		final SpellSearcher prepared = new SpellSearcher(indexSearcher, words, -1,
+				hasField(indexSearcher.getIndexReader(), NGram.F_LENGTH), null);
+		if (knownWordFilter) {
+			prepared.knownWords = KnownWords.build(words, words.size(),
+					MultiFields.getLiveDocs(indexSearcher.getIndexReader()));
+		}
+		if (candidateStrategy == CandidateStrategy.DELETES) {
+			prepared.deletes = newDeletes(words, indexSearcher.getIndexReader(), null);
+		}
+		return prepared;
+	}
+
+	private void installSearcher(final SpellSearcher prepared, final Directory dir) throws IOException {
 		synchronized (searcherLock) {
 			if (closed) {
-				indexSearcher.getIndexReader().close();
+				prepared.reader().decRef();
 				throw new AlreadyClosedException("Spellchecker has been closed");
 			}
-			if (searcher != null) {
-				searcher.getIndexReader().close();
-			}
+			// a searcher may share its reader with the searcher it replaced (see setSnapshot), so release
+			// our reference rather than closing the reader
+			final SpellSearcher previous = searcher;
 			// set the spellindex in the sync block - ensure consistency.
-			searcher = indexSearcher;
+			searcher = new SpellSearcher(prepared.searcher, prepared.words, nextGeneration(), prepared.lengthIndexed,
+					previous == null ? null : previous.snapshot);
+			searcher.knownWords = prepared.knownWords;
+			// the delete variants hold the ids of the words the searcher serves from
+			searcher.deletes = searcher.snapshot == null ? prepared.deletes : previous.deletes;
 			this.spellIndex = dir;
+			// only now, such that a reader failing to tryIncRef the previous searcher finds the new one
+			if (previous != null) {
+				previous.reader().decRef();
+			}
 		}
 	}
 
+	/*
+	 * Called under searcherLock for every searcher that is installed
+	 * */
+	private long nextGeneration() {
+		generation++;
+		SuggestionCache cache = suggestionCache;
+		if (cache != null) {
+			cache.invalidate(generation);
+		}
+		return generation;
+	}
+
+	/*
+	 * true if every segment has the field, an index built by an older version doesn't have the length field
+	 * */
+	private static boolean hasField(IndexReader reader, String field) {
+		for (LeafReaderContext ctx : reader.leaves()) {
+			if (ctx.reader().getFieldInfos().fieldInfo(field) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	IndexSearcher createSearcher(final Directory dir) throws IOException {
 		return new IndexSearcher(DirectoryReader.open(dir));
 	}
@@ -353,4 +1680,35 @@ public class NotaNgramSpellChecker implements java.io.Closeable {
 		return closed;
 	}
 
+	/*
+	 * A searcher on the spell index together with the per-searcher structures derived from it.
+	 * They are created and released together, such that a word table always matches the docIds of its searcher.
+	 * */
+	private static final class SpellSearcher {
+		final IndexSearcher searcher;
+		final WordTable words;
+		final long generation;
+		// whether the length of the words is indexed in all segments
+		final boolean lengthIndexed;
+		// if not null suggestions are served from the snapshot instead of the searcher
+		final SpellSnapshot snapshot;
+		// the words of the searcher for isKnownWord, null unless the known word filter is enabled
+		volatile KnownWords knownWords;
+		// the delete variants of the words, null unless CandidateStrategy.DELETES is used
+		volatile DeleteNeighbourhood deletes;
+
+		SpellSearcher(IndexSearcher searcher, WordTable words, long generation, boolean lengthIndexed,
+				SpellSnapshot snapshot) {
+			this.searcher = searcher;
+			this.words = words;
+			this.generation = generation;
+			this.lengthIndexed = lengthIndexed;
+			this.snapshot = snapshot;
+		}
+
+		IndexReader reader() {
+			return searcher.getIndexReader();
+		}
+	}
+
 }
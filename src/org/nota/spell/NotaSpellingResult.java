@@ -0,0 +1,44 @@
+package org.nota.spell;
+
+import java.util.Collection;
+
+import org.apache.lucene.analysis.Token;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.spelling.SpellingResult;
+
+/*
+ * A SpellingResult that knows whether the suggestions are complete. getSuggestions returns one of these, it is
+ * truncated when the suggest budget (suggestTimeAllowed, maxDistanceComputations) ran out, in which case the
+ * suggestions are the best ones found until then.
+ * With metricsInResponse configured, a request asking for extended results also gets the numbers of the request
+ * (tokens looked up, distance computations, time), see getStats().
+ * */
+public class NotaSpellingResult extends SpellingResult {
+
+	private boolean truncated;
+	private NamedList<Object> stats;
+
+	public NotaSpellingResult(Collection<Token> tokens) {
+		super(tokens);
+	}
+
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public void setTruncated(boolean truncated) {
+		this.truncated = truncated;
+	}
+
+	/*
+	 * @return the numbers of the request, null unless metricsInResponse is configured and extended results were
+	 *         asked for
+	 */
+	public NamedList<Object> getStats() {
+		return stats;
+	}
+
+	public void setStats(NamedList<Object> stats) {
+		this.stats = stats;
+	}
+}
@@ -0,0 +1,140 @@
+package org.nota.spell;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.index.IndexWriter;
+
+/*
+ * Feeds words to an IndexWriter from one reading thread to a number of worker threads.
+ * The reading thread (the one calling add) only streams the dictionary and collects words in batches, the workers
+ * create the n-gram documents and add them to the shared IndexWriter, which supports concurrent adds.
+ * The queue between the two is bounded, so a fast dictionary never buffers more than a few batches per worker.
+ * */
+final class ParallelIndexer {
+
+	private static final int BATCH_SIZE = 256;
+	private static final Batch POISON = new Batch();
+
+	private final IndexWriter writer;
+	private final int threads;
+	private final BlockingQueue<Batch> queue;
+	private final ExecutorService workers;
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+	private Batch current = new Batch();
+
+	ParallelIndexer(IndexWriter writer, int threads) {
+		this.writer = writer;
+		this.threads = threads;
+		this.queue = new ArrayBlockingQueue<>(threads * 4);
+		this.workers = Executors.newFixedThreadPool(threads, SpellExecutors.daemonThreadFactory("spellcheck-build"));
+		for (int i = 0; i < threads; i++) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			});
+		}
+	}
+
+	void add(String word, long weight) throws IOException {
+		current.words[current.size] = word;
+		current.weights[current.size] = weight;
+		if (++current.size == BATCH_SIZE) {
+			put(current);
+			current = new Batch();
+		}
+	}
+
+	/*
+	 * Waits for all words to be added, rethrows the first failure of a worker.
+	 * */
+	void finish() throws IOException {
+		try {
+			if (current.size > 0) {
+				put(current);
+			}
+			for (int i = 0; i < threads; i++) {
+				put(POISON);
+			}
+			workers.shutdown();
+			while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+				// keep waiting, the workers only stop on the poison batch
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abort();
+			throw new IOException("Interrupted while building the spell index", e);
+		}
+		checkFailure();
+	}
+
+	void abort() {
+		workers.shutdownNow();
+	}
+
+	private void put(Batch batch) throws IOException {
+		checkFailure();
+		try {
+			queue.put(batch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abort();
+			throw new IOException("Interrupted while building the spell index", e);
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable t = failure.get();
+		if (t == null) {
+			return;
+		}
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		throw new IOException(t);
+	}
+
+	private void work() {
+		try {
+			while (true) {
+				Batch batch = queue.take();
+				if (batch == POISON) {
+					return;
+				}
+				// after a failure keep draining, such that the reading thread never blocks on a full queue
+				if (failure.get() != null) {
+					continue;
+				}
+				try {
+					for (int i = 0; i < batch.size; i++) {
+						writer.addDocument(NGram.reusableDocument(batch.words[i], batch.weights[i]));
+					}
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class Batch {
+		final String[] words = new String[BATCH_SIZE];
+		final long[] weights = new long[BATCH_SIZE];
+		int size;
+	}
+}
@@ -0,0 +1,91 @@
+package org.nota.spell;
+
+import java.util.Arrays;
+
+/*
+ * The result of NotaNgramSpellChecker.suggestSimilarScored: the suggested words, best first, with the score the
+ * StringDistance gave them and their frequency. Instances are immutable and may be shared (e.g. by the suggestion
+ * cache).
+ * */
+public final class ScoredSuggestions {
+
+	private final String[] words;
+	private final float[] scores;
+	private final int[] freqs;
+	private final boolean hasFrequencies;
+	private final boolean truncated;
+
+	ScoredSuggestions(String[] words, float[] scores, int[] freqs, boolean hasFrequencies) {
+		this(words, scores, freqs, hasFrequencies, false);
+	}
+
+	ScoredSuggestions(String[] words, float[] scores, int[] freqs, boolean hasFrequencies, boolean truncated) {
+		this.words = words;
+		this.scores = scores;
+		this.freqs = freqs;
+		this.hasFrequencies = hasFrequencies;
+		this.truncated = truncated;
+	}
+
+	/*
+	 * Just the word itself, the result for a word that is spelled correctly
+	 */
+	static ScoredSuggestions single(String word, int freq, boolean hasFrequencies) {
+		return new ScoredSuggestions(new String[] { word }, new float[] { 1f }, new int[] { freq }, hasFrequencies);
+	}
+
+	public int size() {
+		return words.length;
+	}
+
+	public String word(int i) {
+		return words[i];
+	}
+
+	public float score(int i) {
+		return scores[i];
+	}
+
+	/*
+	 * The frequency in the user index (or as stored in the spell index), 0 if !hasFrequencies()
+	 */
+	public int freq(int i) {
+		return freqs[i];
+	}
+
+	/*
+	 * @return true if the frequencies were determined, that is if suggestSimilar was given a user index and field
+	 * and the suggest mode isn't SUGGEST_ALWAYS
+	 */
+	public boolean hasFrequencies() {
+		return hasFrequencies;
+	}
+
+	/*
+	 * @return true if the SuggestBudget ran out before all candidates were looked at
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public boolean contains(String word) {
+		for (String w : words) {
+			if (w.equals(word)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * @return a copy of the words, best first
+	 */
+	public String[] toArray() {
+		return words.clone();
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(words);
+	}
+}
@@ -0,0 +1,570 @@
+package org.nota.spell;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.spell.StringDistance;
+import org.apache.lucene.search.spell.SuggestMode;
+import org.apache.lucene.search.spell.SuggestWord;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+/*
+ * A spell index split over several directories, one NotaNgramSpellChecker per shard. Every word goes to the shard
+ * picked by the hash of the word. A query retrieves the candidates of all shards in parallel (each on its own core),
+ * merges them and runs the distance computations once on the merged candidates, so the suggestions are identical to
+ * a single spell index holding all words with candidateStrategy GRAM_OVERLAP:
+ * - the candidates are ranked by gram overlap, then by the hash of the word and the word itself, which doesn't depend
+ *   on the shard a word is in (unlike BM25 with the statistics of the shard or docIds). Every shard returns its best
+ *   maxHits, the best maxHits of all of them are the candidates of the single index, in the same order.
+ * - the length pruning, earlyTerminationHits and the suggest budget depend on the order of the candidates and on the
+ *   suggestions found so far, so the distance loop runs on the calling thread over the merged candidates.
+ * - everything that depends on the word itself (known word, its frequency, the early exit for words that are in
+ *   the index) is decided once on the shard holding the word.
+ * The candidate strategy of the shards is ignored, they always retrieve by gram overlap. Settings are made on the
+ * shards, see getShards(), and have to be the same on all of them, except for the metrics, which are recorded here
+ * once per word and build. ShardComparison in bench checks a sharded against a single spell index.
+ * */
+public class ShardedNotaSpellChecker implements Closeable {
+
+	private static final int SHARD_SEED = 0x5eed5a4d;
+	// batches of words read from the dictionary and not taken by a shard yet, per shard
+	private static final int FEED_BATCHES = 4;
+
+	private final NotaNgramSpellChecker[] shards;
+	// runs all shards but the first, which the calling thread takes, null to query the shards one after another
+	private final ExecutorService executor;
+	private volatile SpellMetrics metrics;
+
+	public ShardedNotaSpellChecker(Directory[] shardIndexes, StringDistance sd, Comparator<SuggestWord> comparator,
+			ExecutorService executor) throws IOException {
+		if (shardIndexes.length == 0) {
+			throw new IllegalArgumentException("At least one shard is needed");
+		}
+		this.shards = new NotaNgramSpellChecker[shardIndexes.length];
+		for (int i = 0; i < shardIndexes.length; i++) {
+			shards[i] = new NotaNgramSpellChecker(shardIndexes[i], sd, comparator);
+		}
+		this.executor = executor;
+	}
+
+	/*
+	 * The shard a word belongs to
+	 */
+	static int shardOf(String word, int shardCount) {
+		return shardOf(new BytesRef(word), shardCount);
+	}
+
+	/*
+	 * The shard of a word given as UTF-8 bytes, the way the build reads the dictionary. Not BytesRef.hashCode, its
+	 * seed changes with every JVM and the words have to stay on their shard across restarts.
+	 */
+	static int shardOf(BytesRef word, int shardCount) {
+		return Math.floorMod(StringHelper.murmurhash3_x86_32(word, SHARD_SEED), shardCount);
+	}
+
+	/**
+	 * Records the suggestSimilar calls and builds into the given metrics: a word answered by all shards counts as
+	 * one call, with the time spent on the shards added up by phase. Searcher swaps of the shards aren't recorded.
+	 * The shards themselves are meant to have no metrics.
+	 */
+	public void setMetrics(SpellMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public List<NotaNgramSpellChecker> getShards() {
+		return Collections.unmodifiableList(Arrays.asList(shards));
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	private NotaNgramSpellChecker shard(String word) {
+		return shards[shardOf(word, shards.length)];
+	}
+
+	public boolean isKnownWord(String word) {
+		return shard(word).isKnownWord(word);
+	}
+
+	public boolean exist(String word) throws IOException {
+		return shard(word).exist(word);
+	}
+
+	public int frequency(String word) throws IOException {
+		return shard(word).frequency(word);
+	}
+
+	int storedFrequency(String word) throws IOException {
+		return shard(word).storedFrequency(word);
+	}
+
+	public ScoredSuggestions suggestSimilarScored(String word, int numSug, IndexReader ir, String field,
+			SuggestMode suggestMode, float accuracy) throws IOException {
+		return suggestSimilarScored(word, numSug, ir, field, suggestMode, accuracy, null);
+	}
+
+	/**
+	 * The same as
+	 * {@link NotaNgramSpellChecker#suggestSimilarScored(String, int, IndexReader, String, SuggestMode, float, SuggestBudget)}
+	 * over all shards. The budget is shared by the shards.
+	 */
+	public ScoredSuggestions suggestSimilarScored(final String word, final int numSug, IndexReader ir, String field,
+			SuggestMode suggestMode, final float accuracy, final SuggestBudget budget) throws IOException {
+		if (suggestMode == SuggestMode.SUGGEST_WHEN_NOT_IN_INDEX && ir != null && field != null
+				&& isKnownWord(word)) {
+			return ScoredSuggestions.single(word, 0, false);
+		}
+		if (ir == null || field == null) {
+			suggestMode = SuggestMode.SUGGEST_ALWAYS;
+		}
+		if (suggestMode == SuggestMode.SUGGEST_ALWAYS) {
+			ir = null;
+			field = null;
+		}
+		final SpellMetrics metrics = this.metrics;
+		final long start = metrics != null ? System.nanoTime() : 0;
+		final SpellMetrics.SuggestCounts counts = metrics != null ? new SpellMetrics.SuggestCounts() : null;
+		final int freq = shard(word).wordFrequency(word, ir, field, counts);
+		if (suggestMode == SuggestMode.SUGGEST_WHEN_NOT_IN_INDEX && freq > 0) {
+			if (metrics != null) {
+				metrics.recordInIndex(System.nanoTime() - start, counts.docFreqNanos, counts.docFreqCount);
+			}
+			return ScoredSuggestions.single(word, freq, true);
+		}
+		if (budget != null && budget.exhausted()) {
+			// nothing left for this word, e.g. the other tokens of the request took all the time
+			return new ScoredSuggestions(new String[0], new float[0], new int[0], ir != null && field != null, true);
+		}
+
+		final long retrieval = metrics != null ? System.nanoTime() : 0;
+		final Candidates[] results = new Candidates[shards.length];
+		if (executor == null) {
+			for (int i = 0; i < shards.length; i++) {
+				results[i] = shards[i].shardCandidates(word, numSug, accuracy);
+			}
+		} else {
+			retrieveInParallel(word, numSug, accuracy, results);
+		}
+		// the settings are the same on all shards, any of them can run the distance loop
+		final NotaNgramSpellChecker first = shards[0];
+		final Candidates candidates = merge(results, first.candidateHits(word, numSug));
+		final ScoredSuggestions suggestions = first.scoreCandidates(candidates, candidates.ids(), word, freq, numSug,
+				ir, field, suggestMode, accuracy, budget, metrics != null ? System.nanoTime() - retrieval : 0, -1,
+				counts);
+		if (metrics != null) {
+			metrics.recordSuggest(counts, System.nanoTime() - start);
+		}
+		return suggestions;
+	}
+
+	private void retrieveInParallel(final String word, final int numSug, final float accuracy,
+			Candidates[] results) throws IOException {
+		List<Future<Candidates>> futures = new ArrayList<>(shards.length - 1);
+		try {
+			for (int i = 1; i < shards.length; i++) {
+				final NotaNgramSpellChecker shard = shards[i];
+				futures.add(executor.submit(new Callable<Candidates>() {
+					@Override
+					public Candidates call() throws IOException {
+						return shard.shardCandidates(word, numSug, accuracy);
+					}
+				}));
+			}
+			results[0] = shards[0].shardCandidates(word, numSug, accuracy);
+			for (int i = 1; i < shards.length; i++) {
+				results[i] = futures.get(i - 1).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while querying the spell index shards", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			for (Future<Candidates> future : futures) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	/*
+	 * The best maxHits candidates of all shards, best first. Every shard has its candidates in this order already.
+	 */
+	private static Candidates merge(Candidates[] results, int maxHits) {
+		int total = 0;
+		for (Candidates result : results) {
+			total += result.words.length;
+		}
+		final int n = Math.min(maxHits, total);
+		final String[] words = new String[n];
+		final long[] ranks = new long[n];
+		int[] freqs = new int[n];
+		// the next candidate of every shard
+		final int[] next = new int[results.length];
+		for (int i = 0; i < n; i++) {
+			int best = -1;
+			for (int s = 0; s < results.length; s++) {
+				if (next[s] < results[s].words.length && (best < 0 || results[s].before(next[s], results[best],
+						next[best]))) {
+					best = s;
+				}
+			}
+			final Candidates from = results[best];
+			final int j = next[best]++;
+			words[i] = from.words[j];
+			ranks[i] = from.ranks[j];
+			if (freqs != null) {
+				if (from.freqs == null) {
+					// like a single index, frequencies are only used if every word has one
+					freqs = null;
+				} else {
+					freqs[i] = from.freqs[j];
+				}
+			}
+		}
+		return new Candidates(words, ranks, freqs);
+	}
+
+	public void clearIndex() throws IOException {
+		for (NotaNgramSpellChecker shard : shards) {
+			shard.clearIndex();
+		}
+	}
+
+	/**
+	 * Adds the words of the dictionary to their shards, all shards are built at the same time. The calling thread
+	 * reads the dictionary once and hands every word to its shard, each shard adds its words on a thread of its own.
+	 * If a shard fails, all shards are rolled back.
+	 *
+	 * @param config
+	 *            a new IndexWriterConfig per shard, a config can't be shared by writers
+	 * @param threads
+	 *            worker threads per shard, see {@link NotaNgramSpellChecker#indexDictionary}
+	 */
+	public BuildStats indexDictionary(final Dictionary dict, final Supplier<IndexWriterConfig> config,
+			final boolean fullMerge, final int threads) throws IOException {
+		final long start = System.nanoTime();
+		final ShardFeed[] feeds = new ShardFeed[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			feeds[i] = new ShardFeed();
+		}
+		// the first failure of a shard
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		// not the shard executor, all shards have to take their words at the same time
+		final ExecutorService builders = Executors.newFixedThreadPool(shards.length,
+				SpellExecutors.daemonThreadFactory("spellcheck-shard-build"));
+		final List<Future<BuildStats>> futures = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			final int shard = i;
+			futures.add(builders.submit(new Callable<BuildStats>() {
+				@Override
+				public BuildStats call() throws IOException {
+					try {
+						return shards[shard].indexDictionary(feeds[shard], config.get(), fullMerge, threads);
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+						// the reading thread may be about to hand over more words
+						feeds[shard].drain();
+						throw t;
+					}
+				}
+			}));
+		}
+		builders.shutdown();
+
+		long read = 0;
+		Throwable readFailure = null;
+		try {
+			final InputIterator iter = dict.getEntryIterator();
+			BytesRef term;
+			while (failure.get() == null && (term = iter.next()) != null) {
+				read++;
+				feeds[shardOf(term, shards.length)].add(term, iter.weight());
+			}
+		} catch (IOException | RuntimeException e) {
+			readFailure = e;
+		}
+		final boolean complete = readFailure == null && failure.get() == null;
+		final BuildStats[] stats = new BuildStats[shards.length];
+		try {
+			for (ShardFeed feed : feeds) {
+				feed.finish(complete);
+			}
+			for (int i = 0; i < shards.length; i++) {
+				try {
+					stats[i] = futures.get(i).get();
+				} catch (ExecutionException e) {
+					// the shard recorded its failure, or it was aborted because of another failure
+				}
+			}
+		} catch (InterruptedException | IOException e) {
+			builders.shutdownNow();
+			if (readFailure != null) {
+				readFailure.addSuppressed(e);
+			} else {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while building the spell index shards", e);
+			}
+		}
+		if (readFailure == null) {
+			readFailure = failure.get();
+		}
+		if (readFailure instanceof IOException) {
+			throw (IOException) readFailure;
+		}
+		if (readFailure instanceof RuntimeException) {
+			throw (RuntimeException) readFailure;
+		}
+		if (readFailure instanceof Error) {
+			throw (Error) readFailure;
+		}
+		if (readFailure != null) {
+			throw new IOException(readFailure);
+		}
+		long added = 0;
+		for (BuildStats s : stats) {
+			added += s.getWordsAdded();
+		}
+		final SpellMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.recordBuild(System.nanoTime() - start, added);
+		}
+		return new BuildStats(read, added, (System.nanoTime() - start) / 1000000, shards.length * threads);
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (NotaNgramSpellChecker shard : shards) {
+			try {
+				shard.close();
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/*
+	 * Candidate words with their rank (see GramOverlapCandidates.rank) and, if the spell index has them, their
+	 * frequencies, best first. Served to the distance loop by position.
+	 */
+	static final class Candidates implements SpellWords {
+		private final String[] words;
+		private final long[] ranks;
+		private final int[] freqs;
+
+		Candidates(String[] words, long[] ranks, int[] freqs) {
+			this.words = words;
+			this.ranks = ranks;
+			this.freqs = freqs;
+		}
+
+		/*
+		 * Whether candidate i ranks before candidate j of other, the same order as GramOverlapCandidates
+		 */
+		boolean before(int i, Candidates other, int j) {
+			if (ranks[i] != other.ranks[j]) {
+				return ranks[i] > other.ranks[j];
+			}
+			return words[i].compareTo(other.words[j]) < 0;
+		}
+
+		int[] ids() {
+			final int[] ids = new int[words.length];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = i;
+			}
+			return ids;
+		}
+
+		@Override
+		public int length(int id) {
+			return words[id].length();
+		}
+
+		@Override
+		public boolean equalsWord(int id, String word) {
+			return words[id].equals(word);
+		}
+
+		@Override
+		public int hash(int id) {
+			return words[id].hashCode();
+		}
+
+		@Override
+		public String word(int id) {
+			return words[id];
+		}
+
+		@Override
+		public boolean hasFrequencies() {
+			return freqs != null;
+		}
+
+		@Override
+		public int freq(int id) {
+			return freqs[id];
+		}
+	}
+
+	/*
+	 * The words of one shard, handed over in batches from the thread reading the dictionary to the thread building
+	 * the shard. The queue is bounded, so a fast dictionary never buffers more than a few batches per shard.
+	 */
+	private static final class ShardFeed implements Dictionary {
+		private static final int BATCH_SIZE = 256;
+		// no more words
+		private static final Batch END = new Batch();
+		// the build failed elsewhere, the shard has to fail too
+		private static final Batch ABORT = new Batch();
+
+		private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(FEED_BATCHES);
+		// reading thread only
+		private Batch current = new Batch();
+		// shard thread only, END or ABORT was taken
+		private boolean ended;
+
+		void add(BytesRef term, long weight) throws IOException {
+			current.terms[current.size] = BytesRef.deepCopyOf(term);
+			current.weights[current.size] = weight;
+			if (++current.size == BATCH_SIZE) {
+				put(current);
+				current = new Batch();
+			}
+		}
+
+		/*
+		 * Hands over the remaining words and END, or ABORT if the build can't complete
+		 */
+		void finish(boolean complete) throws IOException {
+			if (complete && current.size > 0) {
+				put(current);
+			}
+			put(complete ? END : ABORT);
+		}
+
+		private void put(Batch batch) throws IOException {
+			try {
+				queue.put(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while building the spell index shards", e);
+			}
+		}
+
+		private Batch take() throws IOException {
+			try {
+				final Batch batch = queue.take();
+				ended = batch == END || batch == ABORT;
+				return batch;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while building the spell index shards", e);
+			}
+		}
+
+		/*
+		 * Takes the batches until the end after the shard failed, such that the reading thread never blocks on a
+		 * full queue
+		 */
+		void drain() {
+			try {
+				while (!ended) {
+					take();
+				}
+			} catch (IOException e) {
+				// interrupted, the build is being cancelled
+			}
+		}
+
+		@Override
+		public InputIterator getEntryIterator() {
+			return new InputIterator() {
+				private Batch batch;
+				private int pos;
+
+				@Override
+				public BytesRef next() throws IOException {
+					while (batch == null || pos == batch.size) {
+						if (batch == END) {
+							return null;
+						}
+						if (batch == ABORT) {
+							throw new IOException("The build of the spell index shards failed");
+						}
+						batch = take();
+						pos = 0;
+					}
+					return batch.terms[pos++];
+				}
+
+				@Override
+				public long weight() {
+					return batch.weights[pos - 1];
+				}
+
+				@Override
+				public BytesRef payload() {
+					return null;
+				}
+
+				@Override
+				public boolean hasPayloads() {
+					return false;
+				}
+
+				@Override
+				public Set<BytesRef> contexts() {
+					return null;
+				}
+
+				@Override
+				public boolean hasContexts() {
+					return false;
+				}
+			};
+		}
+
+		private static final class Batch {
+			final BytesRef[] terms = new BytesRef[BATCH_SIZE];
+			final long[] weights = new long[BATCH_SIZE];
+			int size;
+		}
+	}
+}
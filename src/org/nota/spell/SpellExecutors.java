@@ -0,0 +1,154 @@
+package org.nota.spell;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Executors used by the spell checker to run work in parallel.
+ * All executors are bounded: at most the given number of tasks run at the same time and a full queue makes the
+ * submitting thread run the task itself, which gives natural back pressure under load instead of an ever growing queue.
+ * Threads are created on demand and time out when idle, so an unused executor costs nothing.
+ * Virtual threads are used when asked for and the JVM supports them (Java 21+), otherwise daemon platform threads.
+ * Virtual threads aren't pooled: every task gets a new one and a semaphore bounds how many run at the same time, a
+ * task submitted while all permits are taken runs on the submitting thread.
+ * */
+public final class SpellExecutors {
+
+	private SpellExecutors() {
+	}
+
+	public static ExecutorService newBoundedExecutor(String name, int threads, boolean virtualThreads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1, got: " + threads);
+		}
+		final ExecutorService perTask = virtualThreads ? newVirtualThreadPerTaskExecutor(name) : null;
+		if (perTask != null) {
+			return new BoundedExecutor(perTask, threads);
+		}
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 16), daemonThreadFactory(name),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	public static ThreadFactory daemonThreadFactory(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/*
+	 * Thread.ofVirtual().name(name + "-", 0).factory() if available. Looked up reflectively as the module
+	 * is still compiled against older Java versions, returns null if virtual threads aren't supported.
+	 */
+	public static ThreadFactory virtualThreadFactory(String name) {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Executors.newThreadPerTaskExecutor(virtualThreadFactory(name)) if available, null otherwise
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+		final ThreadFactory factory = virtualThreadFactory(name);
+		if (factory == null) {
+			return null;
+		}
+		try {
+			Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) perTask.invoke(null, factory);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Runs at most permits tasks at the same time on the delegate, the submitting thread runs a task itself when
+	 * all permits are taken
+	 */
+	private static final class BoundedExecutor extends AbstractExecutorService {
+
+		private final ExecutorService delegate;
+		private final Semaphore permits;
+
+		BoundedExecutor(ExecutorService delegate, int permits) {
+			this.delegate = delegate;
+			this.permits = new Semaphore(permits);
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			if (!permits.tryAcquire()) {
+				if (delegate.isShutdown()) {
+					throw new RejectedExecutionException("Executor has been shut down");
+				}
+				command.run();
+				return;
+			}
+			try {
+				delegate.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							command.run();
+						} finally {
+							permits.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				permits.release();
+				throw e;
+			}
+		}
+
+		@Override
+		public void shutdown() {
+			delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return delegate.awaitTermination(timeout, unit);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package org.nota.spell;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Counters and latency histograms of the hot paths, to tell where the time of a slow request went: retrieving the
+ * candidates from the spell index, computing their distances or the docFreq calls against the user index.
+ * A spell checker only records into an instance set with NotaNgramSpellChecker.setMetrics, without one the hot
+ * paths don't even read the clock. Counters are LongAdders and a suggestSimilar call adds its counts once at the
+ * end, such that threads don't contend on them.
+ * */
+public final class SpellMetrics {
+
+	// suggestSimilar calls that weren't answered by the cache or the known word check, the calls for words found in
+	// the user index with SUGGEST_WHEN_NOT_IN_INDEX included
+	final LongAdder suggestCalls = new LongAdder();
+	// of these the calls for words found in the user index, which don't look at candidates
+	final LongAdder wordsInIndex = new LongAdder();
+	// candidates taken from the hits
+	final LongAdder hitsExamined = new LongAdder();
+	// candidates skipped by the length heuristic without computing the distance
+	final LongAdder lengthPruned = new LongAdder();
+	final LongAdder distanceCalls = new LongAdder();
+	final LongAdder queueInsertions = new LongAdder();
+	final LongAdder docFreqCalls = new LongAdder();
+	final LongAdder requests = new LongAdder();
+	final LongAdder builds = new LongAdder();
+	final LongAdder wordsAdded = new LongAdder();
+	final LongAdder searcherSwaps = new LongAdder();
+
+	// suggestSimilar by phase: the whole call, candidate retrieval, the distance loop without the docFreq calls and
+	// the docFreq calls, the frequency of the word itself included
+	final LatencyHistogram suggest = new LatencyHistogram();
+	final LatencyHistogram candidates = new LatencyHistogram();
+	final LatencyHistogram distances = new LatencyHistogram();
+	final LatencyHistogram docFreq = new LatencyHistogram();
+	// getSuggestions of AbstractNotaSpellChecker, all tokens of a request
+	final LatencyHistogram request = new LatencyHistogram();
+	final LatencyHistogram build = new LatencyHistogram();
+	final LatencyHistogram swapSearcher = new LatencyHistogram();
+
+	/*
+	 * Records one suggestSimilar call that looked at candidates, times in nanoseconds
+	 */
+	void recordSuggest(long candidateNanos, long distanceNanos, long docFreqNanos, int examined, int pruned,
+			int distanceCount, int insertions, int docFreqCount) {
+		suggestCalls.increment();
+		candidates.record(candidateNanos);
+		distances.record(distanceNanos);
+		docFreq.record(docFreqNanos);
+		suggest.record(candidateNanos + distanceNanos + docFreqNanos);
+		hitsExamined.add(examined);
+		lengthPruned.add(pruned);
+		distanceCalls.add(distanceCount);
+		queueInsertions.add(insertions);
+		docFreqCalls.add(docFreqCount);
+	}
+
+	/*
+	 * Records a word answered by all shards of a ShardedNotaSpellChecker as one suggestSimilar call, suggestNanos
+	 * being the time the word took
+	 */
+	void recordSuggest(SuggestCounts counts, long suggestNanos) {
+		suggestCalls.increment();
+		candidates.record(counts.candidateNanos);
+		distances.record(counts.distanceNanos);
+		docFreq.record(counts.docFreqNanos);
+		suggest.record(suggestNanos);
+		hitsExamined.add(counts.examined);
+		lengthPruned.add(counts.pruned);
+		distanceCalls.add(counts.distanceCount);
+		queueInsertions.add(counts.insertions);
+		docFreqCalls.add(counts.docFreqCount);
+	}
+
+	/*
+	 * Records a suggestSimilar call answered with the word itself because SUGGEST_WHEN_NOT_IN_INDEX found it in the
+	 * user index, docFreqCount 0 if its frequency was read from the spell index
+	 */
+	void recordInIndex(long suggestNanos, long docFreqNanos, int docFreqCount) {
+		suggestCalls.increment();
+		wordsInIndex.increment();
+		if (docFreqCount > 0) {
+			docFreq.record(docFreqNanos);
+			docFreqCalls.add(docFreqCount);
+		}
+		suggest.record(suggestNanos);
+	}
+
+	void recordBuild(long nanos, long added) {
+		builds.increment();
+		wordsAdded.add(added);
+		build.record(nanos);
+	}
+
+	void recordSwap(long nanos) {
+		searcherSwaps.increment();
+		swapSearcher.record(nanos);
+	}
+
+	/*
+	 * Records one getSuggestions call of AbstractNotaSpellChecker
+	 */
+	public void recordRequest(long nanos) {
+		requests.increment();
+		request.record(nanos);
+	}
+
+	/**
+	 * @return the counters by name, their current values are read with sum()
+	 */
+	public Map<String, LongAdder> getCounters() {
+		Map<String, LongAdder> counters = new LinkedHashMap<>();
+		counters.put("suggestCalls", suggestCalls);
+		counters.put("wordsInIndex", wordsInIndex);
+		counters.put("hitsExamined", hitsExamined);
+		counters.put("lengthPruned", lengthPruned);
+		counters.put("distanceCalls", distanceCalls);
+		counters.put("queueInsertions", queueInsertions);
+		counters.put("docFreqCalls", docFreqCalls);
+		counters.put("requests", requests);
+		counters.put("builds", builds);
+		counters.put("wordsAdded", wordsAdded);
+		counters.put("searcherSwaps", searcherSwaps);
+		return Collections.unmodifiableMap(counters);
+	}
+
+	/**
+	 * @return the latency histograms by name
+	 */
+	public Map<String, LatencyHistogram> getHistograms() {
+		Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+		histograms.put("suggest", suggest);
+		histograms.put("candidates", candidates);
+		histograms.put("distances", distances);
+		histograms.put("docFreq", docFreq);
+		histograms.put("request", request);
+		histograms.put("build", build);
+		histograms.put("swapSearcher", swapSearcher);
+		return Collections.unmodifiableMap(histograms);
+	}
+
+	/*
+	 * The counts of one suggestSimilar call, collected by ShardedNotaSpellChecker over the shard holding the word and
+	 * the distance loop on the merged candidates. Not thread safe, one instance per word.
+	 */
+	static final class SuggestCounts {
+		long candidateNanos;
+		long distanceNanos;
+		long docFreqNanos;
+		int examined;
+		int pruned;
+		int distanceCount;
+		int insertions;
+		int docFreqCount;
+	}
+}
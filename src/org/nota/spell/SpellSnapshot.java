@@ -0,0 +1,498 @@
+package org.nota.spell;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/*
+ * A read-only, memory-mapped copy of a spell index holding just what suggestSimilar needs: the words, their
+ * frequencies and for every gram the ordinals of the words containing it. Opening a snapshot only maps the file,
+ * nothing is loaded on the heap, so a restarted core can serve suggestions right away instead of rebuilding or
+ * warming up a Lucene index first.
+ *
+ * Layout, all numbers big endian, every section starts at a multiple of 8:
+ *   header       magic, version, flags, word count W, gram count G, first gram index per gram size (6 ints),
+ *                the position of each section (7 longs)
+ *   wordOffsets  W+1 ints, char offset of every word in wordChars
+ *   wordChars    the words as UTF-16 chars, in the order of the word terms of the spell index
+ *   freqs        W ints
+ *   gramOffsets  G+1 ints, byte offset of every gram in gramBytes
+ *   gramBytes    the grams as UTF-8, ordered by gram size and then like the terms of the gramX fields
+ *   postingOffsets G+1 ints, index of the first posting of every gram
+ *   postings     ascending word ordinals
+ * */
+public final class SpellSnapshot implements SpellWords {
+
+	private static final int MAGIC = 0x4E535053; // NSPS
+	private static final int VERSION = 1;
+	private static final int SECTIONS = 7;
+	private static final int HEADER_INTS = 11;
+	private static final int HEADER_SIZE = HEADER_INTS * Integer.BYTES + SECTIONS * Long.BYTES;
+	// the spell index the snapshot was written from had frequencies
+	private static final int FLAG_FREQUENCIES = 1;
+
+	private final Path path;
+	private final boolean hasFrequencies;
+	private final int wordCount;
+	private final int gramCount;
+	// index of the first gram of every gram size, gramStart[MAX_GRAM + 1] == gramCount
+	private final int[] gramStart;
+	private final IntBuffer wordOffsets;
+	private final CharBuffer wordChars;
+	private final IntBuffer freqs;
+	private final IntBuffer gramOffsets;
+	private final ByteBuffer gramBytes;
+	private final IntBuffer postingOffsets;
+	private final IntBuffer postings;
+
+	private SpellSnapshot(Path path, MappedByteBuffer buffer) throws IOException {
+		this.path = path;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a spell snapshot: " + path);
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported spell snapshot version " + buffer.getInt(4) + ": " + path);
+		}
+		hasFrequencies = (buffer.getInt(8) & FLAG_FREQUENCIES) != 0;
+		wordCount = buffer.getInt(12);
+		gramCount = buffer.getInt(16);
+		gramStart = new int[NGram.MAX_GRAM + 2];
+		for (int i = 0; i < gramStart.length; i++) {
+			gramStart[i] = buffer.getInt(20 + i * Integer.BYTES);
+		}
+		final long[] positions = new long[SECTIONS + 1];
+		for (int i = 0; i < SECTIONS; i++) {
+			positions[i] = buffer.getLong(HEADER_INTS * Integer.BYTES + i * Long.BYTES);
+		}
+		positions[SECTIONS] = buffer.capacity();
+		wordOffsets = section(buffer, positions, 0).asIntBuffer();
+		wordChars = section(buffer, positions, 1).asCharBuffer();
+		freqs = section(buffer, positions, 2).asIntBuffer();
+		gramOffsets = section(buffer, positions, 3).asIntBuffer();
+		gramBytes = section(buffer, positions, 4);
+		postingOffsets = section(buffer, positions, 5).asIntBuffer();
+		postings = section(buffer, positions, 6).asIntBuffer();
+	}
+
+	private static ByteBuffer section(MappedByteBuffer buffer, long[] positions, int section) {
+		ByteBuffer dup = buffer.duplicate();
+		dup.limit((int) positions[section + 1]);
+		dup.position((int) positions[section]);
+		return dup.slice();
+	}
+
+	/**
+	 * Maps the snapshot in the given file. The mapping stays valid after the file is replaced by a newer snapshot,
+	 * it is released when the snapshot is garbage collected.
+	 */
+	public static SpellSnapshot open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Spell snapshot too large: " + file);
+			}
+			return new SpellSnapshot(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/*
+	 * @return the number of words in the snapshot
+	 */
+	public int size() {
+		return wordCount;
+	}
+
+	@Override
+	public int length(int ord) {
+		return wordOffsets.get(ord + 1) - wordOffsets.get(ord);
+	}
+
+	@Override
+	public int hash(int ord) {
+		int h = 0;
+		final int end = wordOffsets.get(ord + 1);
+		for (int i = wordOffsets.get(ord); i < end; i++) {
+			h = 31 * h + wordChars.get(i);
+		}
+		return h;
+	}
+
+	@Override
+	public boolean equalsWord(int ord, String word) {
+		final int start = wordOffsets.get(ord);
+		if (wordOffsets.get(ord + 1) - start != word.length()) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (wordChars.get(start + i) != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String word(int ord) {
+		final int start = wordOffsets.get(ord);
+		final char[] chars = new char[wordOffsets.get(ord + 1) - start];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = wordChars.get(start + i);
+		}
+		return new String(chars);
+	}
+
+	@Override
+	public boolean hasFrequencies() {
+		return hasFrequencies;
+	}
+
+	/*
+	 * The frequency stored at build time, 0 if the spell index was built without frequencies
+	 */
+	@Override
+	public int freq(int ord) {
+		return freqs.get(ord);
+	}
+
+	/*
+	 * @return the ordinal of the word, or -1 if the word is not in the snapshot
+	 */
+	public int ordinal(String word) {
+		int low = 0;
+		int high = wordCount - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = compareWord(mid, word);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Compares in code point order, which is the (UTF-8 byte) order of the word terms the snapshot was written in
+	 */
+	private int compareWord(int ord, String word) {
+		final int start = wordOffsets.get(ord);
+		final int length = wordOffsets.get(ord + 1) - start;
+		final int n = Math.min(length, word.length());
+		for (int i = 0; i < n; i++) {
+			final char a = wordChars.get(start + i);
+			final char b = word.charAt(i);
+			if (a != b) {
+				return codePointOrder(a) - codePointOrder(b);
+			}
+		}
+		return length - word.length();
+	}
+
+	// moves the surrogates above the other chars of the BMP, such that chars compare like code points
+	private static int codePointOrder(char c) {
+		if (c >= 0xD800) {
+			return c >= 0xE000 ? c - 0x800 : c + 0x2000;
+		}
+		return c;
+	}
+
+	/*
+	 * @return the index of the gram in the given gramX field, or -1 if no word has it
+	 */
+	int findGram(String field, BytesRef gram) {
+		final int ng = field.charAt(field.length() - 1) - '0';
+		if (ng < 1 || ng > NGram.MAX_GRAM) {
+			return -1;
+		}
+		int low = gramStart[ng];
+		int high = gramStart[ng + 1] - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = compareGram(mid, gram);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int compareGram(int g, BytesRef gram) {
+		final int start = gramOffsets.get(g);
+		final int length = gramOffsets.get(g + 1) - start;
+		final int n = Math.min(length, gram.length);
+		for (int i = 0; i < n; i++) {
+			final int a = gramBytes.get(start + i) & 0xFF;
+			final int b = gram.bytes[gram.offset + i] & 0xFF;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return length - gram.length;
+	}
+
+	int postingsStart(int g) {
+		return postingOffsets.get(g);
+	}
+
+	int postingsEnd(int g) {
+		return postingOffsets.get(g + 1);
+	}
+
+	int posting(int i) {
+		return postings.get(i);
+	}
+
+	/**
+	 * Writes the live words of the spell index, with their frequencies and grams, to the given file. The snapshot
+	 * is written next to the file first and then moved in place, such that readers of the old snapshot never see a
+	 * partial file.
+	 */
+	static void write(IndexReader reader, WordTable words, Path file) throws IOException {
+		final Bits liveDocs = MultiFields.getLiveDocs(reader);
+		final int[] docToOrd = new int[reader.maxDoc()];
+		Arrays.fill(docToOrd, -1);
+		final int[] ordToDoc = new int[reader.maxDoc()];
+		int wordCount = 0;
+		long totalChars = 0;
+		PostingsEnum postingsEnum = null;
+		final Terms wordTerms = MultiFields.getTerms(reader, NotaNgramSpellChecker.F_WORD);
+		if (wordTerms != null) {
+			final TermsEnum te = wordTerms.iterator();
+			while (te.next() != null) {
+				postingsEnum = te.postings(postingsEnum, PostingsEnum.NONE);
+				int ord = -1;
+				for (int doc = postingsEnum.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postingsEnum
+						.nextDoc()) {
+					if (liveDocs != null && !liveDocs.get(doc)) {
+						continue;
+					}
+					if (ord < 0) {
+						ord = wordCount++;
+						ordToDoc[ord] = doc;
+						totalChars += words.length(doc);
+					}
+					docToOrd[doc] = ord;
+				}
+			}
+		}
+
+		int gramCount = 0;
+		long totalGramBytes = 0;
+		for (int ng = 1; ng <= NGram.MAX_GRAM; ng++) {
+			final Terms terms = MultiFields.getTerms(reader, "gram" + ng);
+			if (terms == null) {
+				continue;
+			}
+			final TermsEnum te = terms.iterator();
+			for (BytesRef gram = te.next(); gram != null; gram = te.next()) {
+				gramCount++;
+				totalGramBytes += gram.length;
+			}
+		}
+
+		final long[] positions = new long[SECTIONS];
+		long pos = align(HEADER_SIZE);
+		positions[0] = pos;
+		pos = align(pos + (wordCount + 1L) * Integer.BYTES);
+		positions[1] = pos;
+		pos = align(pos + totalChars * Character.BYTES);
+		positions[2] = pos;
+		pos = align(pos + (long) wordCount * Integer.BYTES);
+		positions[3] = pos;
+		pos = align(pos + (gramCount + 1L) * Integer.BYTES);
+		positions[4] = pos;
+		pos = align(pos + totalGramBytes);
+		positions[5] = pos;
+		pos = align(pos + (gramCount + 1L) * Integer.BYTES);
+		positions[6] = pos;
+
+		final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		boolean success = false;
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			final RegionWriter wordOffsetsOut = new RegionWriter(channel, positions[0]);
+			final RegionWriter wordCharsOut = new RegionWriter(channel, positions[1]);
+			final RegionWriter freqsOut = new RegionWriter(channel, positions[2]);
+			int offset = 0;
+			for (int ord = 0; ord < wordCount; ord++) {
+				final int doc = ordToDoc[ord];
+				final String word = words.word(doc);
+				wordOffsetsOut.putInt(offset);
+				for (int i = 0; i < word.length(); i++) {
+					wordCharsOut.putChar(word.charAt(i));
+				}
+				offset += word.length();
+				freqsOut.putInt(words.hasFrequencies() ? words.freq(doc) : 0);
+			}
+			wordOffsetsOut.putInt(offset);
+			wordOffsetsOut.flush();
+			wordCharsOut.flush();
+			freqsOut.flush();
+
+			final int[] gramStart = new int[NGram.MAX_GRAM + 2];
+			final RegionWriter gramOffsetsOut = new RegionWriter(channel, positions[3]);
+			final RegionWriter gramBytesOut = new RegionWriter(channel, positions[4]);
+			final RegionWriter postingOffsetsOut = new RegionWriter(channel, positions[5]);
+			final RegionWriter postingsOut = new RegionWriter(channel, positions[6]);
+			int g = 0;
+			int gramOffset = 0;
+			int postingOffset = 0;
+			int[] ords = new int[16];
+			for (int ng = 1; ng <= NGram.MAX_GRAM; ng++) {
+				gramStart[ng] = g;
+				final Terms terms = MultiFields.getTerms(reader, "gram" + ng);
+				if (terms == null) {
+					continue;
+				}
+				final TermsEnum te = terms.iterator();
+				for (BytesRef gram = te.next(); gram != null; gram = te.next()) {
+					gramOffsetsOut.putInt(gramOffset);
+					gramBytesOut.put(gram);
+					gramOffset += gram.length;
+					postingOffsetsOut.putInt(postingOffset);
+
+					// docIds don't follow the word order, map them to ordinals and sort
+					int n = 0;
+					postingsEnum = te.postings(postingsEnum, PostingsEnum.NONE);
+					for (int doc = postingsEnum.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postingsEnum
+							.nextDoc()) {
+						final int ord = docToOrd[doc];
+						if (ord >= 0) {
+							if (n == ords.length) {
+								ords = Arrays.copyOf(ords, n * 2);
+							}
+							ords[n++] = ord;
+						}
+					}
+					Arrays.sort(ords, 0, n);
+					for (int i = 0; i < n; i++) {
+						// a word indexed twice maps to one ordinal
+						if (i == 0 || ords[i] != ords[i - 1]) {
+							postingsOut.putInt(ords[i]);
+							postingOffset++;
+						}
+					}
+					g++;
+				}
+			}
+			gramStart[NGram.MAX_GRAM + 1] = g;
+			gramOffsetsOut.putInt(gramOffset);
+			postingOffsetsOut.putInt(postingOffset);
+			gramOffsetsOut.flush();
+			gramBytesOut.flush();
+			postingOffsetsOut.flush();
+			postingsOut.flush();
+			if (postingsOut.position > Integer.MAX_VALUE) {
+				throw new IOException("Spell snapshot too large: " + wordCount + " words, " + postingOffset
+						+ " postings");
+			}
+
+			final RegionWriter header = new RegionWriter(channel, 0);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(words.hasFrequencies() ? FLAG_FREQUENCIES : 0);
+			header.putInt(wordCount);
+			header.putInt(gramCount);
+			for (int start : gramStart) {
+				header.putInt(start);
+			}
+			for (long position : positions) {
+				header.putLong(position);
+			}
+			header.flush();
+			channel.force(true);
+			success = true;
+		} finally {
+			if (!success) {
+				Files.deleteIfExists(tmp);
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static long align(long pos) {
+		return (pos + 7) & ~7L;
+	}
+
+	/*
+	 * Buffered sequential writes to one section of the file, such that all sections are written in a single pass
+	 * */
+	private static final class RegionWriter {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		long position;
+
+		RegionWriter(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(Integer.BYTES);
+			buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(Long.BYTES);
+			buffer.putLong(value);
+		}
+
+		void putChar(char value) throws IOException {
+			ensure(Character.BYTES);
+			buffer.putChar(value);
+		}
+
+		void put(BytesRef bytes) throws IOException {
+			int offset = bytes.offset;
+			int remaining = bytes.length;
+			while (remaining > 0) {
+				ensure(1);
+				final int n = Math.min(remaining, buffer.remaining());
+				buffer.put(bytes.bytes, offset, n);
+				offset += n;
+				remaining -= n;
+			}
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package org.nota.spell;
+
+/*
+ * Random access to the words a spell checker can suggest, by docId for the Lucene spell index (WordTable)
+ * or by ordinal for a SpellSnapshot. This is all the candidate loop of suggestSimilar needs to know about a word.
+ * */
+interface SpellWords {
+
+	int length(int id);
+
+	boolean equalsWord(int id, String word);
+
+	/*
+	 * The same as word(id).hashCode(), without creating the String
+	 */
+	int hash(int id);
+
+	String word(int id);
+
+	boolean hasFrequencies();
+
+	int freq(int id);
+}
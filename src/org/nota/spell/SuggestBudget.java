@@ -0,0 +1,73 @@
+package org.nota.spell;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Bounds the work of one request, which may span several suggestSimilar calls (the tokens of a query, possibly on
+ * several threads): a deadline and a maximum number of distance computations. Once either runs out suggestSimilar
+ * stops looking at candidates and returns the best suggestions found so far, and the budget is marked truncated.
+ * The clock is only read every few distance computations, such that checking the budget stays cheap.
+ * */
+public final class SuggestBudget {
+
+	private static final int CLOCK_INTERVAL = 16;
+
+	// System.nanoTime() based, 0 for no deadline
+	private final long deadline;
+	private final long maxDistances;
+	private final AtomicLong distances = new AtomicLong();
+	private volatile boolean truncated;
+
+	/**
+	 * @param timeAllowedMillis
+	 *            time from now until the deadline, 0 or lower for no deadline
+	 * @param maxDistances
+	 *            maximum number of distance computations, 0 or lower for no limit
+	 */
+	public SuggestBudget(long timeAllowedMillis, long maxDistances) {
+		this.deadline = timeAllowedMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeAllowedMillis)
+				: 0;
+		this.maxDistances = maxDistances;
+	}
+
+	/*
+	 * Charges one distance computation, false if the budget is used up
+	 */
+	boolean charge() {
+		if (truncated) {
+			return false;
+		}
+		final long n = distances.incrementAndGet();
+		if ((maxDistances > 0 && n > maxDistances)
+				|| (deadline != 0 && (n & (CLOCK_INTERVAL - 1)) == 0 && System.nanoTime() - deadline > 0)) {
+			truncated = true;
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	 * True if the budget is used up, checks the clock
+	 */
+	boolean exhausted() {
+		if (!truncated && deadline != 0 && System.nanoTime() - deadline > 0) {
+			truncated = true;
+		}
+		return truncated;
+	}
+
+	/*
+	 * @return true if some suggestSimilar call had to stop early because the budget was used up
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/*
+	 * @return the number of distance computations charged so far
+	 */
+	public long getDistances() {
+		return distances.get();
+	}
+}
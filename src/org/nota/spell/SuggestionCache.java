@@ -0,0 +1,265 @@
+package org.nota.spell;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.spell.SuggestMode;
+
+/*
+ * A bounded cache of suggestSimilar results using segmented LRU eviction.
+ * New entries go into a probation segment, an entry that is hit again is promoted into the protected segment,
+ * which takes up to 80% of the capacity. Entries that are only looked up once (the long tail of misspellings)
+ * are therefore evicted before the few thousand words that make up most of the traffic.
+ * Every lookup reorders the segments, so the cache is split into stripes by the hash of the key, each an SLRU of its
+ * own share of the capacity with its own lock. Request threads only contend when they hit the same stripe.
+ *
+ * Entries belong to a searcher generation of the spell index. Whenever a new searcher is installed
+ * (swapSearcher, i.e. clearIndex, indexDictionary and setSpellIndex) the cache is invalidated, and results
+ * computed against an older searcher are never stored. The same holds for a change of the settings that affect
+ * suggestions (distance, comparator, candidate retrieval), see clear().
+ * */
+public final class SuggestionCache {
+
+	private final int capacity;
+	private final Stripe[] stripes;
+
+	// only written by invalidate and clear, which then empty every stripe under its lock
+	private volatile long generation;
+	// bumped by clear, results computed before are not stored
+	private volatile long epoch;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public SuggestionCache(int capacity) {
+		this(capacity, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param stripes
+	 *            the number of independently locked parts, rounded down to a power of two and at most capacity
+	 */
+	public SuggestionCache(int capacity, int stripes) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1, got: " + capacity);
+		}
+		this.capacity = capacity;
+		final int n = Integer.highestOneBit(Math.max(1, Math.min(capacity, stripes)));
+		this.stripes = new Stripe[n];
+		for (int i = 0; i < n; i++) {
+			this.stripes[i] = new Stripe(capacity / n + (i < capacity % n ? 1 : 0));
+		}
+	}
+
+	private Stripe stripe(Key key) {
+		return stripes[KnownWords.mix(key.hashCode()) & (stripes.length - 1)];
+	}
+
+	ScoredSuggestions get(Key key, long generation) {
+		if (generation != this.generation) {
+			misses.increment();
+			return null;
+		}
+		final ScoredSuggestions value = stripe(key).get(key);
+		if (value == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return value;
+	}
+
+	/*
+	 * To be read before computing a result that is put afterwards
+	 */
+	long epoch() {
+		return epoch;
+	}
+
+	void put(Key key, ScoredSuggestions value, long generation, long epoch) {
+		final Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			// checked under the lock of the stripe, invalidate and clear change them before emptying the stripe
+			if (generation != this.generation || epoch != this.epoch) {
+				return;
+			}
+			evictions.add(stripe.put(key, value));
+		}
+	}
+
+	/*
+	 * Drops all entries of the current generation, e.g. because a setting changed the suggestions
+	 */
+	synchronized void clear() {
+		epoch++;
+		clearStripes();
+	}
+
+	synchronized void invalidate(long generation) {
+		this.generation = generation;
+		clearStripes();
+	}
+
+	private void clearStripes() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "SuggestionCache[size=" + size() + ", capacity=" + capacity + ", hits=" + getHits() + ", misses="
+				+ getMisses() + ", evictions=" + getEvictions() + "]";
+	}
+
+	/*
+	 * The SLRU of one stripe, callers synchronize on it
+	 * */
+	private static final class Stripe {
+		private final int capacity;
+		private final int protectedCapacity;
+		private final LinkedHashMap<Key, ScoredSuggestions> probation = new LinkedHashMap<>(16, 0.75f, true);
+		private final LinkedHashMap<Key, ScoredSuggestions> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+		Stripe(int capacity) {
+			this.capacity = capacity;
+			this.protectedCapacity = Math.max(1, (int) (capacity * 0.8));
+		}
+
+		synchronized ScoredSuggestions get(Key key) {
+			ScoredSuggestions value = protectedSegment.get(key);
+			if (value == null) {
+				value = probation.remove(key);
+				if (value == null) {
+					return null;
+				}
+				// second hit, promote and demote the least recently used protected entry if needed
+				protectedSegment.put(key, value);
+				if (protectedSegment.size() > protectedCapacity) {
+					Iterator<Map.Entry<Key, ScoredSuggestions>> it = protectedSegment.entrySet().iterator();
+					Map.Entry<Key, ScoredSuggestions> eldest = it.next();
+					it.remove();
+					probation.put(eldest.getKey(), eldest.getValue());
+				}
+			}
+			return value;
+		}
+
+		/*
+		 * @return the number of evicted entries
+		 */
+		int put(Key key, ScoredSuggestions value) {
+			if (protectedSegment.containsKey(key)) {
+				return 0;
+			}
+			probation.put(key, value);
+			int evicted = 0;
+			while (probation.size() + protectedSegment.size() > capacity) {
+				LinkedHashMap<Key, ScoredSuggestions> segment = probation.isEmpty() ? protectedSegment : probation;
+				Iterator<Key> it = segment.keySet().iterator();
+				it.next();
+				it.remove();
+				evicted++;
+			}
+			return evicted;
+		}
+
+		void clear() {
+			probation.clear();
+			protectedSegment.clear();
+		}
+
+		int size() {
+			return probation.size() + protectedSegment.size();
+		}
+	}
+
+	/*
+	 * The user index reader is part of the key since frequencies and the SuggestMode checks depend on it,
+	 * it is only weakly referenced such that the cache never keeps a closed reader alive.
+	 * */
+	static final class Key {
+		private final String word;
+		private final int numSug;
+		private final int accuracyBits;
+		private final SuggestMode suggestMode;
+		private final String field;
+		private final WeakReference<IndexReader> reader;
+		private final int hash;
+
+		Key(String word, int numSug, float accuracy, SuggestMode suggestMode, String field, IndexReader reader) {
+			this.word = word;
+			this.numSug = numSug;
+			this.accuracyBits = Float.floatToIntBits(accuracy);
+			this.suggestMode = suggestMode;
+			this.field = field;
+			this.reader = reader == null ? null : new WeakReference<>(reader);
+			int h = word.hashCode();
+			h = 31 * h + numSug;
+			h = 31 * h + accuracyBits;
+			h = 31 * h + suggestMode.hashCode();
+			h = 31 * h + (field == null ? 0 : field.hashCode());
+			h = 31 * h + System.identityHashCode(reader);
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			if (hash != other.hash || numSug != other.numSug || accuracyBits != other.accuracyBits
+					|| suggestMode != other.suggestMode || !word.equals(other.word)
+					|| (field == null ? other.field != null : !field.equals(other.field))) {
+				return false;
+			}
+			if (reader == null || other.reader == null) {
+				return reader == other.reader;
+			}
+			IndexReader r = reader.get();
+			return r != null && r == other.reader.get();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package org.nota.spell;
+
+import java.util.Comparator;
+
+import org.apache.lucene.search.spell.SuggestWord;
+
+/*
+ * The best numSug candidates of one suggestSimilar call, a replacement for SuggestWordQueue that doesn't need a
+ * SuggestWord per candidate. Score, frequency and word are kept in parallel arrays ordered as a binary heap with
+ * the worst entry on top, exactly like the SuggestWordQueue with the same comparator. The comparator is called on
+ * two scratch SuggestWords, such that any configured comparator keeps its semantics.
+ * One instance per thread is reused for every call, only the final result is allocated.
+ * */
+final class TopSuggestions {
+
+	private static final ThreadLocal<TopSuggestions> CURRENT = ThreadLocal.withInitial(TopSuggestions::new);
+
+	private final SuggestWord a = new SuggestWord();
+	private final SuggestWord b = new SuggestWord();
+	private float[] scores = new float[0];
+	private int[] freqs = new int[0];
+	private String[] words = new String[0];
+	private int size;
+	private int maxSize;
+	private Comparator<SuggestWord> comparator;
+
+	/*
+	 * The empty collector of the calling thread
+	 */
+	static TopSuggestions get(int maxSize, Comparator<SuggestWord> comparator) {
+		TopSuggestions top = CURRENT.get();
+		top.reset(maxSize, comparator);
+		return top;
+	}
+
+	private void reset(int maxSize, Comparator<SuggestWord> comparator) {
+		if (words.length < maxSize) {
+			scores = new float[maxSize];
+			freqs = new int[maxSize];
+			words = new String[maxSize];
+		}
+		// don't keep the words of the previous call alive
+		for (int i = 0; i < size; i++) {
+			words[i] = null;
+		}
+		this.size = 0;
+		this.maxSize = maxSize;
+		this.comparator = comparator;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/*
+	 * The score of the worst entry, only valid if size() > 0
+	 */
+	float worstScore() {
+		return scores[0];
+	}
+
+	/*
+	 * Adds the candidate if there is room or it is better than the worst entry, which is then dropped.
+	 * Returns false if the candidate was not added.
+	 */
+	boolean insertWithOverflow(String word, float score, int freq) {
+		if (size < maxSize) {
+			scores[size] = score;
+			freqs[size] = freq;
+			words[size] = word;
+			upHeap(size++);
+			return true;
+		} else if (maxSize > 0 && !lessThanTop(word, score, freq)) {
+			// like PriorityQueue.insertWithOverflow a candidate equal to the worst entry replaces it
+			scores[0] = score;
+			freqs[0] = freq;
+			words[0] = word;
+			downHeap();
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Empties the collector into a result, best first
+	 */
+	ScoredSuggestions drain(boolean hasFrequencies, boolean truncated) {
+		final int n = size;
+		final String[] resultWords = new String[n];
+		final float[] resultScores = new float[n];
+		final int[] resultFreqs = new int[n];
+		for (int i = n - 1; i >= 0; i--) {
+			resultWords[i] = words[0];
+			resultScores[i] = scores[0];
+			resultFreqs[i] = freqs[0];
+			size--;
+			move(size, 0);
+			words[size] = null;
+			downHeap();
+		}
+		return new ScoredSuggestions(resultWords, resultScores, resultFreqs, hasFrequencies, truncated);
+	}
+
+	private int compare(int i, int j) {
+		set(a, i);
+		set(b, j);
+		return comparator.compare(a, b);
+	}
+
+	private boolean lessThanTop(String word, float score, int freq) {
+		a.string = word;
+		a.score = score;
+		a.freq = freq;
+		set(b, 0);
+		return comparator.compare(a, b) < 0;
+	}
+
+	private void set(SuggestWord w, int i) {
+		w.string = words[i];
+		w.score = scores[i];
+		w.freq = freqs[i];
+	}
+
+	private void move(int from, int to) {
+		scores[to] = scores[from];
+		freqs[to] = freqs[from];
+		words[to] = words[from];
+	}
+
+	private void swap(int i, int j) {
+		final float score = scores[i];
+		final int freq = freqs[i];
+		final String word = words[i];
+		move(j, i);
+		scores[j] = score;
+		freqs[j] = freq;
+		words[j] = word;
+	}
+
+	private void upHeap(int i) {
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			if (compare(i, parent) >= 0) {
+				return;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void downHeap() {
+		int i = 0;
+		while (true) {
+			final int left = 2 * i + 1;
+			if (left >= size) {
+				return;
+			}
+			final int right = left + 1;
+			final int worst = right < size && compare(right, left) < 0 ? right : left;
+			if (compare(worst, i) >= 0) {
+				return;
+			}
+			swap(i, worst);
+			i = worst;
+		}
+	}
+}
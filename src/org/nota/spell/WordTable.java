@@ -0,0 +1,164 @@
+package org.nota.spell;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CharsRefBuilder;
+
+/*
+ * An in-memory docId -> word table for a spell index searcher.
+ * Loading the stored word field for every hit means decompressing a stored-field block per candidate,
+ * which used to dominate the time spent in suggestSimilar. Instead the table is built once per searcher
+ * (in swapSearcher) by walking the postings of the indexed word field of every leaf, and all words are kept in one
+ * char array addressed by (global) docId. Length and equality checks are plain array accesses, a String is only
+ * created for candidates that actually need to be handed to the StringDistance.
+ * If the spell index holds the source frequency of every word (as doc values) it is loaded as well.
+ *
+ * */
+final class WordTable implements SpellWords {
+
+	static final WordTable EMPTY = new WordTable(new char[0], new int[1], null);
+
+	private final char[] chars;
+	// offsets[doc] is the start of the word of doc in chars, offsets[doc + 1] its end
+	private final int[] offsets;
+	// source frequency per doc, null if not every segment has them
+	private final int[] freqs;
+
+	private WordTable(char[] chars, int[] offsets, int[] freqs) {
+		this.chars = chars;
+		this.offsets = offsets;
+		this.freqs = freqs;
+	}
+
+	static WordTable build(IndexReader reader, String field, String freqField) throws IOException {
+		final int maxDoc = reader.maxDoc();
+		if (maxDoc == 0) {
+			return EMPTY;
+		}
+		final int[] offsets = new int[maxDoc + 1];
+		final CharsRefBuilder chars = new CharsRefBuilder();
+		PostingsEnum postings = null;
+
+		// first pass, the length of every word such that offsets can be computed
+		for (LeafReaderContext ctx : reader.leaves()) {
+			Terms terms = ctx.reader().terms(field);
+			if (terms == null) {
+				continue;
+			}
+			TermsEnum te = terms.iterator();
+			BytesRef term;
+			while ((term = te.next()) != null) {
+				chars.copyUTF8Bytes(term);
+				postings = te.postings(postings, PostingsEnum.NONE);
+				for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+					offsets[ctx.docBase + doc + 1] = chars.length();
+				}
+			}
+		}
+		long total = 0;
+		for (int i = 1; i <= maxDoc; i++) {
+			total += offsets[i];
+			if (total > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Spell index too large for the in-memory word table");
+			}
+			offsets[i] = (int) total;
+		}
+
+		// second pass, copy the words into place
+		final char[] table = new char[(int) total];
+		for (LeafReaderContext ctx : reader.leaves()) {
+			Terms terms = ctx.reader().terms(field);
+			if (terms == null) {
+				continue;
+			}
+			TermsEnum te = terms.iterator();
+			BytesRef term;
+			while ((term = te.next()) != null) {
+				chars.copyUTF8Bytes(term);
+				postings = te.postings(postings, PostingsEnum.NONE);
+				for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+					System.arraycopy(chars.chars(), 0, table, offsets[ctx.docBase + doc], chars.length());
+				}
+			}
+		}
+		return new WordTable(table, offsets, loadFrequencies(reader, freqField));
+	}
+
+	private static int[] loadFrequencies(IndexReader reader, String freqField) throws IOException {
+		final int[] freqs = new int[reader.maxDoc()];
+		for (LeafReaderContext ctx : reader.leaves()) {
+			NumericDocValues values = ctx.reader().getNumericDocValues(freqField);
+			if (values == null) {
+				return null;
+			}
+			final int maxDoc = ctx.reader().maxDoc();
+			for (int doc = 0; doc < maxDoc; doc++) {
+				freqs[ctx.docBase + doc] = (int) Math.min(Integer.MAX_VALUE, values.get(doc));
+			}
+		}
+		return freqs;
+	}
+
+	int size() {
+		return offsets.length - 1;
+	}
+
+	@Override
+	public int length(int doc) {
+		return offsets[doc + 1] - offsets[doc];
+	}
+
+	@Override
+	public int hash(int doc) {
+		int h = 0;
+		for (int i = offsets[doc]; i < offsets[doc + 1]; i++) {
+			h = 31 * h + chars[i];
+		}
+		return h;
+	}
+
+	@Override
+	public boolean equalsWord(int doc, String word) {
+		final int start = offsets[doc];
+		final int len = offsets[doc + 1] - start;
+		if (len != word.length()) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (chars[start + i] != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean hasFrequencies() {
+		return freqs != null;
+	}
+
+	@Override
+	public int freq(int doc) {
+		return freqs[doc];
+	}
+
+	@Override
+	public String word(int doc) {
+		return new String(chars, offsets[doc], offsets[doc + 1] - offsets[doc]);
+	}
+
+	/*
+	 * Approximate heap usage in bytes
+	 * */
+	long ramBytesUsed() {
+		return 2L * chars.length + 4L * offsets.length + (freqs == null ? 0 : 4L * freqs.length);
+	}
+}